@@ -0,0 +1,108 @@
+package Utils;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+
+import org.opencv.core.Mat;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+
+/**
+ * Latest-value-wins frame sink for an {@link ImageView}.
+ * <p>
+ * Producers {@link #submit(Mat)} frames at whatever rate they have; each call
+ * simply replaces the frame waiting to be shown. An {@link AnimationTimer} drains
+ * it once per JavaFX pulse, so the UI never renders a stale frame and never holds
+ * more than the one pending frame, however busy the FX thread gets.
+ */
+public final class FrameDisplay
+{
+	private final ImageView view;
+	private final FrameRenderer renderer = new FrameRenderer();
+	private final AtomicBoolean pending = new AtomicBoolean(false);
+	private volatile LongConsumer presentTimer;
+	private final AnimationTimer pulse = new AnimationTimer() {
+		@Override
+		public void handle(long now)
+		{
+			if (pending.getAndSet(false))
+			{
+				long start = System.nanoTime();
+				Image image = renderer.present();
+				if (view.getImage() != image)
+				{
+					view.setImage(image);
+				}
+				LongConsumer timer = presentTimer;
+				if (timer != null)
+				{
+					timer.accept(System.nanoTime() - start);
+				}
+			}
+		}
+	};
+
+	/**
+	 * @param view
+	 *            the {@link ImageView} to draw the frames in
+	 */
+	public FrameDisplay(ImageView view)
+	{
+		this.view = view;
+	}
+
+	/**
+	 * Offer a new frame; it replaces any frame not shown yet. Called by a single
+	 * producer thread.
+	 *
+	 * @param frame
+	 *            the {@link Mat} to show, in BGR or grayscale
+	 */
+	public void submit(Mat frame)
+	{
+		renderer.stage(frame);
+		pending.set(true);
+	}
+
+	/**
+	 * Report how long each frame took to present on the JavaFX thread
+	 *
+	 * @param presentTimer
+	 *            receives the duration in nanoseconds, or null for none
+	 */
+	public void setPresentTimer(LongConsumer presentTimer)
+	{
+		this.presentTimer = presentTimer;
+	}
+	
+	/**
+	 * Start draining frames on every JavaFX pulse
+	 */
+	public void start()
+	{
+		runOnFXThread(pulse::start);
+	}
+
+	/**
+	 * Stop draining frames; the last frame stays on screen
+	 */
+	public void stop()
+	{
+		runOnFXThread(pulse::stop);
+	}
+
+	private static void runOnFXThread(Runnable action)
+	{
+		if (Platform.isFxApplicationThread())
+		{
+			action.run();
+		}
+		else
+		{
+			Platform.runLater(action);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package Utils;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Allocation-free replacement for {@link Utils#mat2Image(Mat)} for a continuous
+ * stream of frames.
+ * <p>
+ * Each frame is converted from BGR (or grayscale) to BGRA by a single
+ * {@link Imgproc#cvtColor} whose destination is a {@link Mat} wrapping a direct
+ * {@link ByteBuffer}, and that buffer is handed to the {@link WritableImage}'s
+ * PixelWriter as it is. Buffers and images are pooled per resolution, so in
+ * steady state nothing is allocated and the only copy besides the color
+ * conversion is the one into the image.
+ * <p>
+ * {@link #stage(Mat)} is called by one producer thread, whichever it is;
+ * {@link #present()} must run on the JavaFX thread. Every resolution is double
+ * buffered, so staging the next frame never touches the buffer being presented.
+ */
+public final class FrameRenderer
+{
+	private final Map<Long, Slot> slots = new HashMap<>();
+	// the slot holding the most recently staged frame
+	private Slot latest;
+
+	/**
+	 * Convert the frame into the back buffer for its resolution and make it the
+	 * frame the next {@link #present()} will show
+	 *
+	 * @param frame
+	 *            the {@link Mat} in BGR, BGRA or grayscale
+	 */
+	public void stage(Mat frame)
+	{
+		Slot slot;
+		synchronized (this)
+		{
+			slot = slots.computeIfAbsent(key(frame.cols(), frame.rows()), k -> new Slot(frame.cols(), frame.rows()));
+		}
+
+		switch (frame.channels())
+		{
+		case 1:
+			Imgproc.cvtColor(frame, slot.backMat, Imgproc.COLOR_GRAY2BGRA);
+			break;
+		case 3:
+			Imgproc.cvtColor(frame, slot.backMat, Imgproc.COLOR_BGR2BGRA);
+			break;
+		default:
+			frame.copyTo(slot.backMat);
+			break;
+		}
+
+		synchronized (this)
+		{
+			slot.swap();
+			latest = slot;
+		}
+	}
+
+	/**
+	 * Write the latest staged frame into its pooled image. Must be called on the
+	 * JavaFX thread.
+	 *
+	 * @return the {@link Image} to show, or null if nothing was staged yet
+	 */
+	public synchronized Image present()
+	{
+		if (latest == null)
+		{
+			return null;
+		}
+
+		if (latest.dirty)
+		{
+			latest.front.rewind();
+			latest.image.getPixelWriter().setPixels(0, 0, latest.width, latest.height,
+					PixelFormat.getByteBgraPreInstance(), latest.front, latest.width * 4);
+			latest.dirty = false;
+		}
+		return latest.image;
+	}
+
+	private static long key(int width, int height)
+	{
+		return ((long) width << 32) | height;
+	}
+
+	/**
+	 * The pooled image and the two BGRA buffers of one resolution
+	 */
+	private static final class Slot
+	{
+		final int width;
+		final int height;
+		final WritableImage image;
+		ByteBuffer front;
+		ByteBuffer back;
+		Mat frontMat;
+		Mat backMat;
+		boolean dirty;
+
+		Slot(int width, int height)
+		{
+			this.width = width;
+			this.height = height;
+			this.image = new WritableImage(width, height);
+			this.front = ByteBuffer.allocateDirect(width * height * 4);
+			this.back = ByteBuffer.allocateDirect(width * height * 4);
+			// the Mats share the buffers' memory; the alpha byte stays 255 after cvtColor,
+			// so the premultiplied format is exact
+			this.frontMat = new Mat(height, width, CvType.CV_8UC4, front);
+			this.backMat = new Mat(height, width, CvType.CV_8UC4, back);
+		}
+
+		void swap()
+		{
+			ByteBuffer buffer = front;
+			front = back;
+			back = buffer;
+			Mat mat = frontMat;
+			frontMat = backMat;
+			backMat = mat;
+			dirty = true;
+		}
+	}
+}
@@ -2,6 +2,10 @@ package Utils;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.opencv.core.Mat;
 
@@ -22,6 +26,9 @@ import javafx.scene.image.Image;
  */
 public final class Utils
 {
+	// the latest value waiting for the JavaFX thread, per property
+	private static final Map<ObjectProperty<?>, PendingUpdate> pendingUpdates = new WeakHashMap<>();
+	
 	/**
 	 * Convert a Mat object (OpenCV) in the corresponding Image for JavaFX
 	 *
@@ -44,7 +51,10 @@ public final class Utils
 	
 	/**
 	 * Generic method for putting element running on a non-JavaFX thread on the
-	 * JavaFX thread, to properly update the UI
+	 * JavaFX thread, to properly update the UI. Updates are coalesced per
+	 * property: while one is still waiting for the JavaFX thread, newer values
+	 * replace it instead of queuing another runnable, so only the latest value
+	 * is ever held and set.
 	 * 
 	 * @param property
 	 *            a {@link ObjectProperty}
@@ -53,9 +63,23 @@ public final class Utils
 	 */
 	public static <T> void onFXThread(final ObjectProperty<T> property, final T value)
 	{
-		Platform.runLater(() -> {
-			property.set(value);
-		});
+		PendingUpdate update;
+		synchronized (pendingUpdates)
+		{
+			update = pendingUpdates.computeIfAbsent(property, p -> new PendingUpdate());
+		}
+		update.value.set(value);
+		
+		if (update.scheduled.compareAndSet(false, true))
+		{
+			Platform.runLater(() -> {
+				// clear the flag first: a value set after this point schedules a new update
+				update.scheduled.set(false);
+				@SuppressWarnings("unchecked")
+				T latest = (T) update.value.get();
+				property.set(latest);
+			});
+		}
 	}
 	
 	/**
@@ -86,5 +110,14 @@ public final class Utils
 		
 		return image;
 	}
+	
+	/**
+	 * Support for the {@link onFXThread()} method
+	 */
+	private static final class PendingUpdate
+	{
+		final AtomicReference<Object> value = new AtomicReference<>();
+		final AtomicBoolean scheduled = new AtomicBoolean(false);
+	}
 }
 
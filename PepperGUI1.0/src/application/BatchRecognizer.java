@@ -0,0 +1,413 @@
+package application;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvException;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+
+/*
+ * Headless recognition over a directory of images or a video file, for offline
+ * evaluations on machines without a display.
+ *
+ * Every image of the catalog directory is a reference object named after its file.
+ * Scenes are read on the main thread and recognized on a pool of workers, each with
+ * its own detector and matcher; every object is matched against the whole scene and
+ * located with a RANSAC homography, as ParallelRecognizer does within one frame.
+ * Results go to stdout as one JSON object per scene and object, in scene order:
+ *
+ *   {"scene":"img_0001.jpg","object":"book","found":true,"matches":63,"inliers":41,
+ *    "corners":[[12.0,40.5],[201.3,38.0],[199.8,290.1],[15.2,288.7]],"extractMs":92.4,"matchMs":11.0}
+ *
+ * corners is the outline of the object in the scene, null when it is not found.
+ * With --annotate the scenes are also written out with the outlines drawn. Progress
+ * and the final summary go to stderr.
+ *
+ *   java application.BatchRecognizer [--workers N] [--backend SURF|ORB|AKAZE|BRISK] [--threshold N]
+ *       [--scale S] [--descriptors DIR] [--annotate DIR] catalogDir scenesDirOrVideo
+ */
+public class BatchRecognizer {
+	private static final String USAGE = "usage: java application.BatchRecognizer [--workers N]"
+			+ " [--backend SURF|ORB|AKAZE|BRISK] [--threshold N] [--scale S] [--descriptors DIR] [--annotate DIR]"
+			+ " catalogDir scenesDirOrVideo";
+	// reprojection error, in pixels, under which a good match counts as an inlier
+	private static final double INLIER_DISTANCE = 3;
+
+	private final ObjectCatalog catalog;
+	private final int workers;
+	private final File annotateDir;
+	private final PrintStream out;
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	private final Map<String, AtomicLong> found = new LinkedHashMap<>();
+	private final AtomicInteger failures = new AtomicInteger();
+
+	/*
+	 * annotateDir may be null to write no images.
+	 */
+	public BatchRecognizer(ObjectCatalog catalog, int workers, File annotateDir, PrintStream out) {
+		this.catalog = catalog;
+		this.workers = workers;
+		this.annotateDir = annotateDir;
+		this.out = out;
+		for (String name : catalog.getNames()) {
+			found.put(name, new AtomicLong());
+		}
+	}
+
+	public static void main(String[] args) {
+		int workers = Runtime.getRuntime().availableProcessors();
+		int threshold = 50;
+		double scale = 1.0;
+		File descriptors = null;
+		File annotate = null;
+		List<String> paths = new ArrayList<>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (!args[i].startsWith("--")) {
+					paths.add(args[i]);
+					continue;
+				}
+				if (i + 1 >= args.length) {
+					usage();
+				}
+				String value = args[++i];
+				switch (args[i - 1]) {
+				case "--workers":
+					workers = Integer.parseInt(value);
+					break;
+				case "--backend":
+					FeatureBackend.setDefault(FeatureBackend.valueOf(value.toUpperCase(Locale.ROOT)));
+					break;
+				case "--threshold":
+					threshold = Integer.parseInt(value);
+					break;
+				case "--scale":
+					scale = Double.parseDouble(value);
+					break;
+				case "--descriptors":
+					descriptors = new File(value);
+					break;
+				case "--annotate":
+					annotate = new File(value);
+					break;
+				default:
+					usage();
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			usage();
+		}
+		if (paths.size() != 2 || workers < 1) {
+			usage();
+		}
+
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		DescriptorStore store = descriptors != null ? new DescriptorStore(descriptors.getPath()) : null;
+		ObjectCatalog catalog = loadCatalog(new File(paths.get(0)), threshold, scale, store);
+		if (catalog.size() == 0) {
+			System.err.println("No reference images in " + paths.get(0));
+			System.exit(1);
+		}
+		if (annotate != null && !annotate.isDirectory() && !annotate.mkdirs()) {
+			System.err.println("Cannot create " + annotate);
+			System.exit(1);
+		}
+
+		BatchRecognizer recognizer = new BatchRecognizer(catalog, workers, annotate, System.out);
+		long scenes = recognizer.run(new File(paths.get(1)));
+		if (scenes == 0) {
+			System.err.println("No scenes read from " + paths.get(1));
+			System.exit(1);
+		}
+	}
+
+	/*
+	 * Every image of the directory as a reference object named after its file, with
+	 * the threshold adjusted to the feature backend.
+	 */
+	public static ObjectCatalog loadCatalog(File directory, int threshold, double scale, DescriptorStore store) {
+		ObjectCatalog catalog = new ObjectCatalog();
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return catalog;
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			if (!ReplayFrameSource.isImage(file)) {
+				continue;
+			}
+			if (!file.canRead()) {
+				System.err.println("Cannot read the reference image " + file);
+				continue;
+			}
+			// the image is only decoded if the store has no features for it
+			SurfImage object = new SurfImage(file.getPath());
+			try {
+				object.getSurfFeatures(store);
+			} catch (CvException e) {
+				System.err.println("Cannot read the reference image " + file + ": " + e.getMessage());
+				continue;
+			}
+			if (object.getObjectDescriptor() == null || object.getObjectDescriptor().empty()) {
+				System.err.println("No features in the reference image " + file);
+				continue;
+			}
+			String name = file.getName().substring(0, file.getName().lastIndexOf('.'));
+			catalog.add(name, object, object.getBackend().scaleThreshold(threshold), scale);
+		}
+		return catalog;
+	}
+
+	/*
+	 * Recognize every scene of the directory or video and print the results. Returns
+	 * the number of scenes read.
+	 */
+	public long run(File scenes) {
+		ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+			Thread thread = new Thread(() -> {
+				try {
+					runnable.run();
+				} finally {
+					// release the detector/matcher this worker created
+					FeatureEngine.closeCurrent();
+				}
+			}, "batch-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// results are printed in scene order; at most this many scenes are in memory
+		Deque<Future<List<String>>> pending = new ArrayDeque<>();
+		int window = workers * 2;
+		long count = 0;
+		long start = System.nanoTime();
+
+		try {
+			if (scenes.isDirectory()) {
+				File[] files = scenes.listFiles();
+				if (files != null) {
+					Arrays.sort(files);
+					for (File file : files) {
+						if (!ReplayFrameSource.isImage(file)) {
+							continue;
+						}
+						Mat frame = Imgcodecs.imread(file.getPath(), Imgcodecs.CV_LOAD_IMAGE_COLOR);
+						if (frame.empty()) {
+							System.err.println("Cannot read the scene " + file);
+							continue;
+						}
+						submit(pool, pending, window, file.getName(), frame);
+						count++;
+					}
+				}
+			} else {
+				VideoCapture capture = new VideoCapture(scenes.getPath());
+				String base = scenes.getName().replaceFirst("\\.[^.]*$", "");
+				Mat frame = new Mat();
+				while (capture.isOpened() && capture.read(frame) && !frame.empty()) {
+					submit(pool, pending, window, String.format(Locale.ROOT, "%s_%06d.jpg", base, count), frame);
+					frame = new Mat();
+					count++;
+				}
+				capture.release();
+			}
+			while (!pending.isEmpty()) {
+				print(pending.poll());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		StringBuilder summary = new StringBuilder(String.format(Locale.ROOT,
+				"[batch] %d scenes in %.1f s (%.1f scenes/s, %d workers), p50 %.1f ms, p99 %.1f ms", count, seconds,
+				seconds > 0 ? count / seconds : 0, workers, latencies.getPercentile(0.50) / 1e6,
+				latencies.getPercentile(0.99) / 1e6));
+		for (Map.Entry<String, AtomicLong> entry : found.entrySet()) {
+			summary.append(" | ").append(entry.getKey()).append(' ').append(entry.getValue().get());
+		}
+		if (failures.get() > 0) {
+			summary.append(" | failed ").append(failures.get());
+		}
+		System.err.println(summary);
+		return count;
+	}
+
+	private void submit(ExecutorService pool, Deque<Future<List<String>>> pending, int window, String name, Mat frame) {
+		pending.add(pool.submit(() -> recognize(name, frame)));
+		if (pending.size() >= window) {
+			print(pending.poll());
+		}
+	}
+
+	private void print(Future<List<String>> result) {
+		try {
+			for (String line : result.get()) {
+				out.println(line);
+			}
+			out.flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// recognize() reports its own failures
+			System.err.println("Exception during the batch recognition: " + e.getCause());
+		}
+	}
+
+	/*
+	 * The JSON lines of one scene. Runs on a worker and releases the frame.
+	 */
+	private List<String> recognize(String scene, Mat frame) {
+		List<String> lines = new ArrayList<>();
+		MatArena arena = new MatArena();
+		MatArena previous = MatArena.setCurrent(arena);
+		long start = System.nanoTime();
+		try {
+			Map<Double, FrameFeatures> features = new LinkedHashMap<>();
+			for (double scale : catalog.getDetectionScales()) {
+				features.put(scale, FrameFeatures.extract(frame, catalog.getBackend(), scale));
+			}
+			long extractNanos = System.nanoTime() - start;
+
+			Map<String, Match> matches = new LinkedHashMap<>();
+			for (String name : catalog.getNames()) {
+				long begin = System.nanoTime();
+				SurfImage object = catalog.getObject(name);
+				FrameFeatures sceneFeatures = features.get(catalog.getDetectionScale(name));
+				Match match = ParallelRecognizer.verify(object, sceneFeatures, frame, catalog.getMatchThreshold(name));
+				matches.put(name, match);
+				lines.add(describe(scene, name, match, object, sceneFeatures, extractNanos, System.nanoTime() - begin));
+			}
+
+			if (annotateDir != null) {
+				annotate(scene, frame, matches, features);
+			}
+		} catch (RuntimeException e) {
+			failures.incrementAndGet();
+			System.err.println("Cannot recognize " + scene + ": " + e);
+			lines.clear();
+			lines.add("{\"scene\":" + quote(scene) + ",\"error\":" + quote(String.valueOf(e)) + "}");
+		} finally {
+			MatArena.setCurrent(previous);
+			arena.close();
+			frame.release();
+		}
+		latencies.record(System.nanoTime() - start);
+		return lines;
+	}
+
+	private String describe(String scene, String name, Match match, SurfImage object, FrameFeatures features,
+			long extractNanos, long matchNanos) {
+		Mat homography = match.getKnownHomography();
+		boolean located = match.areMatch() && homography != null && !homography.empty();
+		StringBuilder line = new StringBuilder();
+		line.append("{\"scene\":").append(quote(scene));
+		line.append(",\"object\":").append(quote(name));
+		line.append(",\"found\":").append(located);
+		line.append(",\"matches\":").append(match.getGoodMatchCount());
+		if (located) {
+			double[] h = new double[9];
+			homography.get(0, 0, h);
+			line.append(",\"inliers\":").append(countInliers(match, h, object.getKeyPointCoordinates(),
+					features.asSurfImage().getKeyPointCoordinates(), features.getScale()));
+			line.append(",\"corners\":[");
+			double[][] corners = { { 0, 0 }, { object.getWidth(), 0 }, { object.getWidth(), object.getHeight() },
+					{ 0, object.getHeight() } };
+			for (int i = 0; i < corners.length; i++) {
+				Point corner = project(h, corners[i][0], corners[i][1]);
+				line.append(i > 0 ? "," : "").append(String.format(Locale.ROOT, "[%.1f,%.1f]", corner.x, corner.y));
+			}
+			line.append(']');
+			found.get(name).incrementAndGet();
+		} else {
+			line.append(",\"inliers\":0,\"corners\":null");
+		}
+		line.append(String.format(Locale.ROOT, ",\"extractMs\":%.1f,\"matchMs\":%.1f}", extractNanos / 1e6,
+				matchNanos / 1e6));
+		return line.toString();
+	}
+
+	/*
+	 * Good matches the homography maps to within INLIER_DISTANCE of their scene
+	 * keypoint; the keypoints of scaled features are brought to full resolution first.
+	 */
+	private static int countInliers(Match match, double[] h, float[] objectCoordinates, float[] sceneCoordinates,
+			double scale) {
+		int[] queryIndices = match.getQueryIndices();
+		int[] trainIndices = match.getTrainIndices();
+		int inliers = 0;
+		for (int i = 0; i < match.getGoodMatchCount(); i++) {
+			Point projected = project(h, objectCoordinates[queryIndices[i] * 2], objectCoordinates[queryIndices[i] * 2 + 1]);
+			double dx = projected.x - sceneCoordinates[trainIndices[i] * 2] / scale;
+			double dy = projected.y - sceneCoordinates[trainIndices[i] * 2 + 1] / scale;
+			if (dx * dx + dy * dy < INLIER_DISTANCE * INLIER_DISTANCE) {
+				inliers++;
+			}
+		}
+		return inliers;
+	}
+
+	private static Point project(double[] h, double x, double y) {
+		double w = h[6] * x + h[7] * y + h[8];
+		return new Point((h[0] * x + h[1] * y + h[2]) / w, (h[3] * x + h[4] * y + h[5]) / w);
+	}
+
+	private void annotate(String scene, Mat frame, Map<String, Match> matches, Map<Double, FrameFeatures> features) {
+		for (Map.Entry<String, Match> entry : matches.entrySet()) {
+			String name = entry.getKey();
+			Match match = entry.getValue();
+			if (!match.areMatch()) {
+				continue;
+			}
+			SurfImage object = catalog.getObject(name);
+			FrameFeatures sceneFeatures = features.get(catalog.getDetectionScale(name));
+			if (Match.drawBorderOutline(frame, match, object, sceneFeatures.asSurfImage())) {
+				double[] h = new double[9];
+				match.getKnownHomography().get(0, 0, h);
+				Imgproc.putText(frame, name, project(h, 0, 0), Core.FONT_HERSHEY_PLAIN, 1.2, new Scalar(0, 255, 0));
+			}
+		}
+		if (!Imgcodecs.imwrite(new File(annotateDir, scene).getPath(), frame)) {
+			System.err.println("Cannot write the annotated " + scene);
+		}
+	}
+
+	private static String quote(String value) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < 0x20) {
+				quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	private static void usage() {
+		System.err.println(USAGE);
+		System.exit(2);
+	}
+}
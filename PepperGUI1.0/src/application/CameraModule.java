@@ -14,15 +14,6 @@ import com.aldebaran.qi.helper.proxies.ALRobotPosture;
 import com.aldebaran.qi.helper.proxies.ALVideoDevice;
 import com.aldebaran.qi.helper.proxies.ALTextToSpeech;
 
-class videoResolution {
-	// kQQVGA (160x120), kQVGA (320x240),
-	// kVGA (640x480) or k4VGA (1280x960, only with the HD camera).		 
-	public final static int kQQVGA = 0;
-	public final static int kQVGA = 1;
-	public final static int kVGA = 2;
-	public final static int k4VGA = 3;
-}
-
 class colorSpace {
 	// 0 = kYuv, 9 = kYUV422, 10 = kYUV, 11 = kRGB, 12 = kHSY, 13 = kBGR 
 	public final static int kYuv = 0;
@@ -37,7 +28,12 @@ public class CameraModule {
 	private ALVideoDevice camProxy;
 	private String clientName;
 	private Mat imageHeader;
+	// only used for heap buffers that do not map 1:1 onto the image
+	private byte[] rawData;
 	private Boolean isConnected = false;
+	// keeps the next image request in flight while the current one is processed
+	private PrefetchingVideoClient videoClient;
+	private Session session;
 	
 	private ALRobotPosture robotPose;
 	private ALTextToSpeech robotSpeak;
@@ -50,6 +46,7 @@ public class CameraModule {
         application = new com.aldebaran.qi.Application(args, robotIP);
         // Start your application
         application.start();
+        this.session = application.session();
         
 		// Create a proxy to ALVideoDevice on the robot
 		try {
@@ -68,14 +65,26 @@ public class CameraModule {
 	}
 	
 	public void connectRobotCamera(String inputClientName) {
-		int frameRate = 30;
+		connectRobotCamera(inputClientName, videoResolution.kQVGA, 30);
+	}
+	
+	public void connectRobotCamera(String inputClientName, int resolution, int frameRate) {
 		try {
-			// Subscribe a client image needs 320*240 and BGR colorspace
-			clientName = camProxy.subscribe(inputClientName, videoResolution.kQVGA, colorSpace.kBGR, frameRate);
+			// Subscribe a client image in BGR colorspace at the given resolution
+			clientName = camProxy.subscribe(inputClientName, resolution, colorSpace.kBGR, frameRate);
 			
-			// cv::Mat header to wrap into an opencv image.
-			imageHeader = new Mat(new org.opencv.core.Size(320, 240), CvType.CV_8UC3);
+			// cv::Mat to copy the images into; sized from the first image received, so
+			// any subscription resolution works
+			imageHeader = new Mat();
 			this.isConnected = true;
+			
+			try {
+				videoClient = new PrefetchingVideoClient(session, clientName);
+			} catch (Exception e) {
+				// nextFrame() falls back to the blocking proxy
+				System.err.println("Image prefetching unavailable: " + e);
+				videoClient = null;
+			}
 		} catch (CallError e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -85,30 +94,125 @@ public class CameraModule {
 		}
 	}
 	
+	/*
+	 * Change the rate of the running subscription. Returns false if the device refuses.
+	 */
+	public boolean setFrameRate(int frameRate) {
+		if (clientName == null) {
+			return false;
+		}
+		try {
+			return camProxy.setFrameRate(clientName, frameRate);
+		} catch (CallError | InterruptedException e) {
+			System.err.println("Failed to set the frame rate: " + e);
+			return false;
+		}
+	}
+	
+	/*
+	 * Change the resolution of the running subscription; the ring buffers follow the
+	 * size of the images received. Returns false if the device refuses.
+	 */
+	public boolean setResolution(int resolution) {
+		if (clientName == null) {
+			return false;
+		}
+		try {
+			return camProxy.setResolution(clientName, resolution);
+		} catch (CallError | InterruptedException e) {
+			System.err.println("Failed to set the resolution: " + e);
+			return false;
+		}
+	}
+	
 	public Mat startStreaming() {
 		try {
 			if (clientName != null) {
-				// ALValue (in C++) is byte[] in Java
-				List alValueImage = (List) camProxy.getImageRemote(clientName);
-				ByteBuffer buffer = (ByteBuffer) alValueImage.get(6);
-				byte[] rawData = buffer.array();
-				imageHeader.put(0,0,rawData);
+				// ALValue (in C++) is a list in Java
+				List<?> alValueImage = (List<?>) camProxy.getImageRemote(clientName);
+				ingestImage(alValueImage, imageHeader);
 				camProxy.releaseImage(clientName);
 				return imageHeader;
 			}
-			
-		} catch (CallError e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			System.err.println("Fail to get frame: not connected");
+		} catch (CallError | InterruptedException e) {
+			System.err.println("Fail to get frame: " + e);
 		}
-	
-		System.out.println("Fail to get frame");
 		return imageHeader;
 	}
 	
+	/*
+	 * Like startStreaming(), but the image is copied into a free buffer of the ring
+	 * instead of the shared imageHeader. The caller owns the returned lease and must
+	 * release it; null means no image was received or every buffer is still in use.
+	 */
+	public FrameRing.Frame nextFrame(FrameRing ring) {
+		if (clientName == null) {
+			return null;
+		}
+		
+		FrameRing.Frame frame = ring.acquire();
+		if (frame == null) {
+			return null;
+		}
+		
+		try {
+			if (videoClient != null) {
+				ingestImage(videoClient.nextImage(), frame.getMat());
+			} else {
+				ingestImage((List<?>) camProxy.getImageRemote(clientName), frame.getMat());
+				camProxy.releaseImage(clientName);
+			}
+			return frame;
+		} catch (Exception e) {
+			frame.release();
+			System.err.println("Fail to get frame: " + e);
+			return null;
+		}
+	}
+	
+	/*
+	 * Copy the image data of an ALValue (width, height, layers, colorspace,
+	 * timestamp (s, us), image data, ...) into the target Mat exactly once. A direct
+	 * buffer is wrapped as a Mat header and copied natively; a heap buffer is put
+	 * straight from its backing array. The target is only reallocated when the image
+	 * size or number of layers changes.
+	 */
+	private void ingestImage(List<?> alValueImage, Mat target) {
+		int width = ((Number) alValueImage.get(0)).intValue();
+		int height = ((Number) alValueImage.get(1)).intValue();
+		int layers = ((Number) alValueImage.get(2)).intValue();
+		ByteBuffer buffer = (ByteBuffer) alValueImage.get(6);
+		int type = CvType.CV_8UC(layers);
+		int size = width * height * layers;
+		if (buffer.remaining() < size) {
+			throw new IllegalArgumentException("Image data holds " + buffer.remaining() + " bytes, expected " + size);
+		}
+		target.create(height, width, type);
+		
+		if (buffer.isDirect()) {
+			// the header only borrows the buffer's memory for the copy
+			Mat header = new Mat(height, width, type, buffer.slice());
+			header.copyTo(target);
+			header.release();
+		} else if (buffer.hasArray() && buffer.arrayOffset() + buffer.position() == 0 && buffer.array().length == size) {
+			target.put(0, 0, buffer.array());
+		} else {
+			if (rawData == null || rawData.length != size) {
+				rawData = new byte[size];
+			}
+			buffer.duplicate().get(rawData);
+			target.put(0, 0, rawData);
+		}
+	}
+	
+	/*
+	 * Images per second actually received from the robot, 0 if unknown.
+	 */
+	public double getCaptureRate() {
+		return videoClient != null ? videoClient.getCaptureRate() : 0;
+	}
+	
 	public boolean robotCameraConnected() {
 		if (isConnected && clientName != null) {
 			return true;
@@ -118,17 +222,15 @@ public class CameraModule {
 	
 	public void stopStreaming() {
 		this.isConnected = false;
+		if (videoClient != null) {
+			videoClient.close();
+			videoClient = null;
+		}
 		if (clientName != null ) {
 			try {
 				camProxy.unsubscribe(clientName);
-			} catch (CallError e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				System.out.println("Failed to unsubscribe");
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				System.out.println("Failed to unsubscribe");
+			} catch (CallError | InterruptedException e) {
+				System.err.println("Failed to unsubscribe: " + e);
 			}
 		}
 	}
@@ -0,0 +1,203 @@
+package application;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+
+/*
+ * Persistent cache of the keypoints and descriptors of reference objects, so they
+ * do not have to be re-read and re-detected on every "Start Camera".
+ *
+ * Entries are keyed by a SHA-1 of the source image bytes plus the detector
+ * parameters, so editing the image or changing the detector simply misses. One
+ * file per entry, in native byte order so it can be mapped straight into a Mat:
+ *
+ *   int file tag, int version, int width, int height,
+ *   int keypoint count, int descriptor rows, int descriptor cols, int descriptor type,
+ *   keypoints  (count x 7 floats: x, y, size, angle, response, octave, class id),
+ *   descriptors (rows x cols elements of the given type)
+ */
+public class DescriptorStore {
+	private static final int FILE_TAG = 0x46454154; // "FEAT", whatever the backend
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8 * 4;
+	private static final int KEYPOINT_FLOATS = 7;
+	private static final String SUFFIX = ".feat";
+
+	private final File directory;
+
+	public DescriptorStore(String directory) {
+		this.directory = new File(directory);
+	}
+
+	/*
+	 * Fill the keypoints and descriptors of the image from the cache. Returns false on
+	 * a miss (or an unreadable entry), in which case the image is left untouched.
+	 */
+	public boolean load(SurfImage image) {
+		File entry = entryFor(image);
+		if (entry == null || !entry.isFile()) {
+			return false;
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(entry, "r");
+				FileChannel channel = file.getChannel()) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.nativeOrder());
+
+			if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != FILE_TAG || buffer.getInt() != VERSION) {
+				return false;
+			}
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			int keyPointCount = buffer.getInt();
+			int rows = buffer.getInt();
+			int cols = buffer.getInt();
+			int type = buffer.getInt();
+
+			long keyPointBytes = (long) keyPointCount * KEYPOINT_FLOATS * 4;
+			long descriptorBytes = (long) rows * cols * CvType.ELEM_SIZE(type);
+			if (buffer.remaining() != keyPointBytes + descriptorBytes) {
+				return false;
+			}
+
+			// The mapped regions are wrapped as Mats and copied once into native memory
+			// the image owns; the mapping itself goes away with the channel.
+			MatOfKeyPoint keyPoints = new MatOfKeyPoint();
+			if (keyPointCount > 0) {
+				Mat mapped = new Mat(keyPointCount, 1, CvType.CV_32FC(KEYPOINT_FLOATS), slice(buffer, HEADER_SIZE, keyPointBytes));
+				mapped.copyTo(keyPoints);
+			}
+			MatOfKeyPoint descriptor = new MatOfKeyPoint();
+			if (rows > 0) {
+				Mat mapped = new Mat(rows, cols, type, slice(buffer, HEADER_SIZE + keyPointBytes, descriptorBytes));
+				mapped.copyTo(descriptor);
+			}
+
+			image.setObjectKeyPoints(keyPoints);
+			image.setObjectDescriptor(descriptor);
+			image.setSize(width, height);
+			return true;
+		} catch (IOException e) {
+			System.err.println("Cannot read the cached features " + entry + ": " + e);
+			return false;
+		}
+	}
+
+	/*
+	 * Write the features of the image to the cache. The entry is written to a
+	 * temporary file first and then moved in place, so a crash never leaves a
+	 * half-written entry behind.
+	 */
+	public void save(SurfImage image) {
+		File entry = entryFor(image);
+		if (entry == null || image.getObjectKeyPoints() == null || image.getObjectDescriptor() == null) {
+			return;
+		}
+
+		Mat keyPoints = image.getObjectKeyPoints();
+		Mat descriptor = image.getObjectDescriptor();
+		int keyPointCount = (int) keyPoints.total();
+		int rows = descriptor.rows(), cols = descriptor.cols(), type = descriptor.type();
+		int keyPointBytes = keyPointCount * KEYPOINT_FLOATS * 4;
+		int descriptorBytes = (int) (descriptor.total() * descriptor.elemSize());
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + keyPointBytes + descriptorBytes).order(ByteOrder.nativeOrder());
+		buffer.putInt(FILE_TAG).putInt(VERSION).putInt(image.getWidth()).putInt(image.getHeight());
+		buffer.putInt(keyPointCount).putInt(rows).putInt(cols).putInt(type);
+
+		if (keyPointCount > 0) {
+			float[] values = new float[keyPointCount * KEYPOINT_FLOATS];
+			keyPoints.get(0, 0, values);
+			buffer.asFloatBuffer().put(values);
+			buffer.position(buffer.position() + keyPointBytes);
+		}
+		if (descriptorBytes > 0) {
+			putDescriptor(buffer, descriptor);
+		}
+
+		try {
+			Files.createDirectories(directory.toPath());
+			File temporary = new File(directory, entry.getName() + ".tmp");
+			Files.write(temporary.toPath(), buffer.array());
+			Files.move(temporary.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Cannot cache the features of " + image.getImagePath() + ": " + e);
+		}
+	}
+
+	/*
+	 * The cache key: SHA-1 over the image file contents and the detector parameters.
+	 */
+	public static String cacheKey(File imageFile, String detectorParameters) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(Files.readAllBytes(imageFile.toPath()));
+			digest.update(detectorParameters.getBytes("UTF-8"));
+
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest()) {
+				key.append(String.format("%02x", b));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 is not available", e);
+		}
+	}
+
+	private File entryFor(SurfImage image) {
+		if (image.getImagePath() == null) {
+			return null;
+		}
+		File imageFile = new File(image.getImagePath());
+		if (!imageFile.isFile()) {
+			return null;
+		}
+
+		try {
+			return new File(directory, cacheKey(imageFile, image.getFeatureParameters()) + SUFFIX);
+		} catch (IOException e) {
+			System.err.println("Cannot hash " + imageFile + ": " + e);
+			return null;
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, long offset, long length) {
+		ByteBuffer view = buffer.duplicate();
+		view.position((int) offset);
+		view.limit((int) (offset + length));
+		return view.slice();
+	}
+
+	private static void putDescriptor(ByteBuffer buffer, Mat descriptor) {
+		int count = (int) (descriptor.total() * descriptor.channels());
+		switch (CvType.depth(descriptor.type())) {
+		case CvType.CV_32F:
+			float[] floats = new float[count];
+			descriptor.get(0, 0, floats);
+			buffer.asFloatBuffer().put(floats);
+			buffer.position(buffer.position() + count * 4);
+			break;
+		case CvType.CV_8U:
+		case CvType.CV_8S:
+			byte[] bytes = new byte[count];
+			descriptor.get(0, 0, bytes);
+			buffer.put(bytes);
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported descriptor type " + CvType.typeToString(descriptor.type()));
+		}
+	}
+}
@@ -0,0 +1,418 @@
+package application;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.opencv.core.Mat;
+
+/*
+ * The object detection loop, written once against the FrameSource SPI:
+ * capture -> extract -> match -> overlay -> convert, on a FramePipeline.
+ *
+ * The overlay stage runs the annotator (by default: outline every object found)
+ * and the convert stage hands the finished frame to the sink, which converts it for
+ * display. Neither needs
+ * JavaFX, so the same pipeline runs headless over a ReplayFrameSource.
+ *
+ * Detection can be limited to every Nth frame, or to frames where the scene has
+ * changed (see MotionGate); the frames in between are still shown, with the
+ * outlines of the last detection. Frames close to one recognized recently take its
+ * results from a RecognitionCache instead.
+ */
+public class DetectionPipeline {
+	private final FrameSource source;
+	private final ObjectCatalog catalog;
+	private final FrameRing ring;
+	private volatile long capturePeriod;
+	private FramePipeline.Stage annotator = this::drawOutlines;
+	private Consumer<Mat> sink = frame -> {};
+	private FramePipeline pipeline;
+	private PipelineMetrics metrics;
+	private volatile ObjectTracker tracker;
+	private int parallelism = 0;
+	private long recognitionDeadline;
+	private volatile ParallelRecognizer recognizer;
+	private volatile int detectEvery = 1;
+	private volatile MotionGate gate;
+	private volatile RecognitionCache cache;
+	// frames shown since the last detection; only used on the extract stage
+	private int skippedFrames = 0;
+	// homographies of the objects found by the last detection, owned by the pipeline
+	private final Object resultsLock = new Object();
+	private Map<String, Mat> lastResults;
+
+	/*
+	 * The ring must hold enough buffers for every stage to work on one frame and have
+	 * one waiting (see FramePipeline), plus the one being captured.
+	 */
+	public DetectionPipeline(FrameSource source, ObjectCatalog catalog, FrameRing ring, long capturePeriod) {
+		this.source = source;
+		this.catalog = catalog;
+		this.ring = ring;
+		this.capturePeriod = capturePeriod;
+	}
+
+	public void setAnnotator(FramePipeline.Stage annotator) {
+		this.annotator = annotator;
+	}
+
+	public void setSink(Consumer<Mat> sink) {
+		this.sink = sink;
+	}
+
+	/*
+	 * Once objects are found, follow them with optical flow and only run full detection
+	 * when one is lost or every redetectEvery frames; 0 detects on every frame.
+	 */
+	public void setTracking(int redetectEvery) {
+		this.tracker = redetectEvery > 0 ? new ObjectTracker(catalog, redetectEvery) : null;
+	}
+
+	public ObjectTracker getTracker() {
+		return tracker;
+	}
+
+	/*
+	 * Match and verify the objects on a pool of that many threads, giving up on those
+	 * not done within deadline milliseconds of the frame; 0 threads queries the shared
+	 * catalog index on the match stage instead. Takes effect on the next start().
+	 */
+	public void setParallelRecognition(int parallelism, long deadline) {
+		this.parallelism = parallelism;
+		this.recognitionDeadline = deadline;
+	}
+
+	public ParallelRecognizer getRecognizer() {
+		return recognizer;
+	}
+
+	/*
+	 * Poll the source every capturePeriod milliseconds; applies to a running pipeline
+	 * from the next frame on.
+	 */
+	public void setCapturePeriod(long capturePeriod) {
+		this.capturePeriod = capturePeriod;
+		FramePipeline current = pipeline;
+		if (current != null) {
+			current.setCapturePeriod(capturePeriod);
+		}
+	}
+
+	public long getCapturePeriod() {
+		return capturePeriod;
+	}
+
+	/*
+	 * Run detection on every detectEvery-th frame only and show the last results on
+	 * the others; 1 detects on every frame. Frames followed by the tracker do not count.
+	 */
+	public void setDetectEvery(int detectEvery) {
+		this.detectEvery = Math.max(1, detectEvery);
+		if (!reusesResults()) {
+			rememberResults(null);
+		}
+	}
+
+	public int getDetectEvery() {
+		return detectEvery;
+	}
+
+	/*
+	 * Only detect when the gate sees the scene change, and reuse the last results
+	 * otherwise; null detects whatever the scene does.
+	 */
+	public void setMotionGate(MotionGate gate) {
+		this.gate = gate;
+		if (!reusesResults()) {
+			rememberResults(null);
+		}
+	}
+
+	public MotionGate getMotionGate() {
+		return gate;
+	}
+
+	/*
+	 * Look frames up in the cache before detecting on them and store the results of
+	 * those that are detected; null caches nothing.
+	 */
+	public void setRecognitionCache(RecognitionCache cache) {
+		this.cache = cache;
+	}
+
+	public RecognitionCache getRecognitionCache() {
+		return cache;
+	}
+
+	/*
+	 * Instrument the stages; takes effect on the next start().
+	 */
+	public void setMetrics(PipelineMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public PipelineMetrics getMetrics() {
+		return metrics;
+	}
+
+	/*
+	 * Open the source and start the stages. Returns false if the source cannot be
+	 * opened.
+	 */
+	public synchronized boolean start() {
+		if (pipeline != null && pipeline.isRunning()) {
+			return true;
+		}
+		if (!source.isOpen() && !source.open()) {
+			return false;
+		}
+
+		if (parallelism > 0) {
+			recognizer = new ParallelRecognizer(catalog, parallelism, recognitionDeadline);
+			recognizer.setMetrics(metrics);
+		}
+		pipeline = new FramePipeline(() -> source.grab(ring), capturePeriod);
+		pipeline.addStage("extract", this::extractFeatures)
+			.addStage("match", this::matchObjects)
+			.addStage("overlay", job -> annotator.process(job))
+			.addStage("convert", this::showFrame);
+		if (metrics != null) {
+			pipeline.setMetrics(metrics);
+			metrics.attach(pipeline, ring);
+			metrics.attach(source);
+			metrics.attach(this);
+			if (cache != null) {
+				metrics.attach(cache);
+			}
+		}
+		pipeline.start();
+		return true;
+	}
+
+	/*
+	 * Stop the stages and close the source.
+	 */
+	public synchronized void stop() {
+		if (pipeline != null) {
+			pipeline.stop();
+		}
+		if (recognizer != null) {
+			recognizer.close();
+			recognizer = null;
+		}
+		if (tracker != null) {
+			tracker.reset();
+		}
+		rememberResults(null);
+		if (gate != null) {
+			gate.reset();
+		}
+		source.close();
+	}
+
+	public synchronized boolean isRunning() {
+		return pipeline != null && pipeline.isRunning();
+	}
+
+	public synchronized long getDroppedFrames() {
+		return pipeline != null ? pipeline.getDroppedFrames() : 0;
+	}
+
+	public FrameSource getSource() {
+		return source;
+	}
+
+	public ObjectCatalog getCatalog() {
+		return catalog;
+	}
+
+	/*
+	 * Default annotator: outline every object found. Only runs once all detections of
+	 * the frame are done, so drawing on the frame is safe.
+	 */
+	public FrameJob drawOutlines(FrameJob job) {
+		// the homographies were fitted on the match stage
+		catalog.drawOutlines(job.getOutput(), job.getMatches(), job.getFeatures());
+		return job;
+	}
+
+	private FrameJob extractFeatures(FrameJob job) {
+		if (tracker != null && tracker.track(job)) {
+			// tracked frames carry their matches and skip extraction and matching
+			return job;
+		}
+		MotionGate currentGate = gate;
+		boolean unchanged = currentGate != null && !currentGate.hasChanged(job.getFrame());
+		if ((unchanged || skippedFrames + 1 < detectEvery) && reuseResults(job)) {
+			skippedFrames++;
+			return job;
+		}
+		skippedFrames = 0;
+		if (currentGate != null) {
+			// the reference only moves once the results of this frame are kept, in matchObjects
+			job.setGateThumbnail(MatArena.track(currentGate.getThumbnail()));
+		}
+		RecognitionCache currentCache = cache;
+		if (currentCache != null) {
+			job.setFingerprint(currentCache.fingerprint(job.getFrame()));
+			if (currentCache.lookup(job.getFingerprint(), catalog.getVersion(), job)) {
+				// seen before: the cached results stand in for a detection
+				job.setFromCache(true);
+				return job;
+			}
+		}
+		// once per frame and scale, shared by all the objects detected at that scale
+		for (double scale : catalog.getDetectionScales()) {
+			job.setFeatures(FrameFeatures.extract(job.getFrame(), catalog.getBackend(), scale));
+		}
+		return job;
+	}
+
+	private FrameJob matchObjects(FrameJob job) {
+		boolean detected = false;
+		for (double scale : catalog.getDetectionScales()) {
+			FrameFeatures features = job.getFeatures(scale);
+			if (features == null) {
+				continue;
+			}
+			detected = true;
+			ParallelRecognizer parallel = recognizer;
+			if (parallel != null) {
+				// one task per object, already located at full resolution
+				job.getMatches().putAll(parallel.recognize(features, job.getFrame(), job.getLease()));
+				continue;
+			}
+			// a single query against the catalog looks for all the objects of this scale at once
+			Map<String, Match> matches = catalog.recognizeAtScale(features);
+			if (scale != 1.0) {
+				refine(job, features, matches);
+			} else {
+				verify(features, matches);
+			}
+			job.getMatches().putAll(matches);
+		}
+		if (!detected && !job.isFromCache()) {
+			// tracked frame, or one that reuses the kept results
+			return job;
+		}
+		if (tracker != null) {
+			tracker.seed(job);
+		}
+		RecognitionCache currentCache = cache;
+		boolean caching = currentCache != null && job.getFingerprint() != null && !job.isFromCache();
+		if (reusesResults() || caching) {
+			Map<String, Mat> found = locateFound(job);
+			if (caching) {
+				currentCache.store(job.getFingerprint(), catalog.getVersion(), found);
+			}
+			if (reusesResults()) {
+				rememberResults(found);
+			} else {
+				for (Mat homography : found.values()) {
+					homography.release();
+				}
+			}
+		}
+		MotionGate currentGate = gate;
+		if (currentGate != null && job.getGateThumbnail() != null) {
+			// the kept results now come from this frame: compare the next ones with it
+			currentGate.markDetected(job.getGateThumbnail());
+		}
+		return job;
+	}
+
+	/*
+	 * Homography of every object the job found, fitted now if the overlay has not done
+	 * it yet; the overlay then uses it as well.
+	 */
+	private Map<String, Mat> locateFound(FrameJob job) {
+		Map<String, Mat> found = new LinkedHashMap<>();
+		for (String name : catalog.getNames()) {
+			Match match = job.getMatch(name);
+			if (match == null || !match.areMatch()) {
+				continue;
+			}
+			Mat homography = match.getKnownHomography();
+			if (homography == null && job.getFeatures() != null) {
+				homography = Match.getHomography(match, catalog.getObject(name), job.getFeatures().asSurfImage());
+			}
+			if (homography != null && !homography.empty()) {
+				found.put(name, homography.clone());
+			}
+		}
+		return found;
+	}
+
+	private boolean reusesResults() {
+		return detectEvery > 1 || gate != null;
+	}
+
+	/*
+	 * Replace the results kept for the frames that skip detection; null forgets them.
+	 */
+	private void rememberResults(Map<String, Mat> results) {
+		synchronized (resultsLock) {
+			if (lastResults != null) {
+				for (Mat homography : lastResults.values()) {
+					homography.release();
+				}
+			}
+			lastResults = results;
+		}
+	}
+
+	/*
+	 * Put the last results into the job as known matches. Returns false if there has
+	 * been no detection to reuse yet.
+	 */
+	private boolean reuseResults(FrameJob job) {
+		synchronized (resultsLock) {
+			if (lastResults == null) {
+				return false;
+			}
+			for (Map.Entry<String, Mat> entry : lastResults.entrySet()) {
+				job.putMatch(entry.getKey(), Match.tracked(MatArena.track(entry.getValue().clone())));
+			}
+			return true;
+		}
+	}
+
+	/*
+	 * Fit the homography of every object the ratio test found, before the overlay
+	 * decides what was found: objects that cannot be located are dropped here.
+	 */
+	private void verify(FrameFeatures features, Map<String, Match> matches) {
+		long start = System.nanoTime();
+		for (Map.Entry<String, Match> entry : matches.entrySet()) {
+			if (entry.getValue().areMatch()) {
+				Match.getHomography(entry.getValue(), catalog.getObject(entry.getKey()), features.asSurfImage());
+			}
+		}
+		if (metrics != null) {
+			metrics.record("homography", System.nanoTime() - start);
+		}
+	}
+
+	/*
+	 * Locate the objects found on the scaled frame at full resolution.
+	 */
+	private void refine(FrameJob job, FrameFeatures features, Map<String, Match> matches) {
+		long start = System.nanoTime();
+		for (Map.Entry<String, Match> entry : matches.entrySet()) {
+			Match match = entry.getValue();
+			if (match.areMatch()) {
+				SurfImage object = catalog.getObject(entry.getKey());
+				match.setKnownHomography(RegionRefiner.refine(match, object, features, job.getFrame()));
+			}
+		}
+		if (metrics != null) {
+			metrics.record("refine", System.nanoTime() - start);
+		}
+	}
+
+	private FrameJob showFrame(FrameJob job) {
+		sink.accept(job.getOutput());
+		return job;
+	}
+}
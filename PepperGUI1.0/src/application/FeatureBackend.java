@@ -0,0 +1,158 @@
+package application;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.opencv.features2d.DescriptorExtractor;
+import org.opencv.features2d.DescriptorMatcher;
+import org.opencv.features2d.FeatureDetector;
+
+/*
+ * The keypoint detector / descriptor pair used for recognition, with the matchers
+ * and thresholds that suit its descriptors.
+ *
+ * SURF gives float descriptors, matched with FLANN KD-trees, and needs the nonfree
+ * module. ORB, AKAZE and BRISK give binary descriptors that are compared by Hamming
+ * distance: pairwise matching uses a brute-force Hamming matcher, which beats any
+ * index at a few hundred descriptors, and the ObjectCatalog index uses FLANN with
+ * LSH tables. The binary detectors find fewer keypoints than SURF, so thresholds
+ * tuned for SURF are scaled per backend.
+ *
+ * The process-wide default comes from -Dfeature.backend=ORB (SURF if unset).
+ */
+public enum FeatureBackend {
+	SURF(FeatureDetector.SURF, DescriptorExtractor.SURF, false, 0.7f, 1.0),
+	ORB(FeatureDetector.ORB, DescriptorExtractor.ORB, true, 0.75f, 0.5),
+	AKAZE(FeatureDetector.AKAZE, DescriptorExtractor.AKAZE, true, 0.8f, 0.6),
+	BRISK(FeatureDetector.BRISK, DescriptorExtractor.BRISK, true, 0.8f, 0.6);
+
+	private static volatile FeatureBackend defaultBackend = fromProperty();
+	private static File lshParameters;
+
+	private final int detectorType;
+	private final int extractorType;
+	private final boolean binary;
+	private final float ratioThreshold;
+	private final double thresholdScale;
+
+	private FeatureBackend(int detectorType, int extractorType, boolean binary, float ratioThreshold,
+			double thresholdScale) {
+		this.detectorType = detectorType;
+		this.extractorType = extractorType;
+		this.binary = binary;
+		this.ratioThreshold = ratioThreshold;
+		this.thresholdScale = thresholdScale;
+	}
+
+	public static FeatureBackend getDefault() {
+		return defaultBackend;
+	}
+
+	public static void setDefault(FeatureBackend backend) {
+		defaultBackend = backend;
+	}
+
+	public FeatureDetector createDetector() {
+		return FeatureDetector.create(detectorType);
+	}
+
+	public DescriptorExtractor createExtractor() {
+		return DescriptorExtractor.create(extractorType);
+	}
+
+	/*
+	 * Matcher for one object against one scene.
+	 */
+	public DescriptorMatcher createMatcher() {
+		return DescriptorMatcher.create(binary ? DescriptorMatcher.BRUTEFORCE_HAMMING : DescriptorMatcher.FLANNBASED);
+	}
+
+	/*
+	 * Matcher to train once over many objects: FLANN KD-trees for float descriptors,
+	 * FLANN LSH for binary ones (brute-force Hamming if the LSH setup cannot be read).
+	 */
+	public DescriptorMatcher createIndexMatcher() {
+		DescriptorMatcher matcher = DescriptorMatcher.create(DescriptorMatcher.FLANNBASED);
+		if (!binary) {
+			return matcher;
+		}
+		File parameters = lshParameters();
+		if (parameters == null) {
+			return DescriptorMatcher.create(DescriptorMatcher.BRUTEFORCE_HAMMING);
+		}
+		matcher.read(parameters.getPath());
+		return matcher;
+	}
+
+	public boolean isBinary() {
+		return binary;
+	}
+
+	/*
+	 * Lowe ratio for the good-match test.
+	 */
+	public float getRatioThreshold() {
+		return ratioThreshold;
+	}
+
+	/*
+	 * A good-match count tuned for SURF, adjusted for this backend.
+	 */
+	public int scaleThreshold(int surfThreshold) {
+		return Math.max(4, (int) Math.round(surfThreshold * thresholdScale));
+	}
+
+	/*
+	 * Identifies the detector setup in the DescriptorStore cache key.
+	 */
+	public String getParameters() {
+		return name() + "/default";
+	}
+
+	private static FeatureBackend fromProperty() {
+		String name = System.getProperty("feature.backend", "SURF");
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown feature backend " + name + ", using SURF");
+			return SURF;
+		}
+	}
+
+	/*
+	 * The Java bindings can only configure a FLANN matcher from a file, so the LSH
+	 * index parameters are written to a temporary one once.
+	 */
+	private static synchronized File lshParameters() {
+		if (lshParameters != null) {
+			return lshParameters;
+		}
+		try {
+			File file = File.createTempFile("flann-lsh", ".yml");
+			file.deleteOnExit();
+			try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+				writer.println("%YAML:1.0");
+				writer.println("indexParams:");
+				// type 9 is an algorithm id (6 = LSH), type 4 an int
+				writeParameter(writer, "algorithm", 9, 6);
+				writeParameter(writer, "table_number", 4, 12);
+				writeParameter(writer, "key_size", 4, 20);
+				writeParameter(writer, "multi_probe_level", 4, 2);
+				writer.println("searchParams:");
+				writeParameter(writer, "checks", 4, 32);
+			}
+			lshParameters = file;
+		} catch (IOException e) {
+			System.err.println("Cannot write the FLANN LSH parameters: " + e);
+		}
+		return lshParameters;
+	}
+
+	private static void writeParameter(PrintWriter writer, String name, int type, int value) {
+		writer.println("   -");
+		writer.println("      name: " + name);
+		writer.println("      type: " + type);
+		writer.println("      value: " + value);
+	}
+}
@@ -0,0 +1,151 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDMatch;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.features2d.DescriptorExtractor;
+import org.opencv.features2d.DescriptorMatcher;
+import org.opencv.features2d.FeatureDetector;
+
+/*
+ * Long-lived detector, extractor and matcher of one FeatureBackend, one set per
+ * thread.
+ *
+ * FeatureDetector.create, DescriptorExtractor.create and DescriptorMatcher.create
+ * each allocate a native algorithm object that is only freed when its Java wrapper
+ * is finalized. Creating them per frame made native memory grow for as long as the
+ * GC stayed quiet. An engine creates them once for the thread that uses it; the
+ * OpenCV algorithms are not thread-safe, so engines are never shared. A thread
+ * keeps one engine per backend it uses, so a worker serving objects of different
+ * backends does not rebuild them from one object to the next.
+ */
+public final class FeatureEngine implements AutoCloseable {
+	private static final ThreadLocal<Map<FeatureBackend, FeatureEngine>> ENGINES = ThreadLocal
+			.withInitial(() -> new EnumMap<>(FeatureBackend.class));
+	private static final Set<FeatureEngine> LIVE = ConcurrentHashMap.newKeySet();
+
+	private final Thread owner;
+	private final FeatureBackend backend;
+	private FeatureDetector detector;
+	private DescriptorExtractor extractor;
+	private DescriptorMatcher matcher;
+	private volatile boolean closed = false;
+
+	private FeatureEngine(FeatureBackend backend) {
+		this.owner = Thread.currentThread();
+		this.backend = backend;
+		this.detector = backend.createDetector();
+		this.extractor = backend.createExtractor();
+		this.matcher = backend.createMatcher();
+	}
+
+	/*
+	 * The engine of the calling thread for the default backend, created on first use.
+	 */
+	public static FeatureEngine current() {
+		return current(FeatureBackend.getDefault());
+	}
+
+	/*
+	 * The engine of the calling thread for the given backend, created on first use.
+	 */
+	public static FeatureEngine current(FeatureBackend backend) {
+		Map<FeatureBackend, FeatureEngine> engines = ENGINES.get();
+		FeatureEngine engine = engines.get(backend);
+		if (engine == null || engine.closed) {
+			engine = new FeatureEngine(backend);
+			engines.put(backend, engine);
+			LIVE.add(engine);
+		}
+		return engine;
+	}
+
+	/*
+	 * Close every engine of the calling thread. Worker threads call this on their way
+	 * out.
+	 */
+	public static void closeCurrent() {
+		// closing removes the engine from the map
+		for (FeatureEngine engine : new ArrayList<>(ENGINES.get().values())) {
+			engine.close();
+		}
+		ENGINES.remove();
+	}
+
+	/*
+	 * Number of engines that have been created and not closed yet.
+	 */
+	public static int liveEngines() {
+		return LIVE.size();
+	}
+
+	/*
+	 * Detect the keypoints of the image and compute their descriptors.
+	 */
+	public void detectAndCompute(Mat image, MatOfKeyPoint keyPoints, Mat descriptor) {
+		checkOwner();
+		detector.detect(image, keyPoints);
+		extractor.compute(image, keyPoints, descriptor);
+	}
+
+	/*
+	 * k nearest neighbours of every query descriptor among the train descriptors.
+	 */
+	public void knnMatch(Mat queryDescriptor, Mat trainDescriptor, List<MatOfDMatch> matches, int k) {
+		checkOwner();
+		matcher.knnMatch(queryDescriptor, trainDescriptor, matches, k);
+	}
+
+	public FeatureBackend getBackend() {
+		return backend;
+	}
+
+	public FeatureDetector getDetector() {
+		return detector;
+	}
+
+	public DescriptorExtractor getExtractor() {
+		return extractor;
+	}
+
+	public DescriptorMatcher getMatcher() {
+		return matcher;
+	}
+
+	/*
+	 * Release the engine. The matcher's train data is cleared right away; the native
+	 * algorithm objects go with their wrappers, which are no longer referenced from
+	 * here. A closed engine cannot be used again.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		matcher.clear();
+		detector = null;
+		extractor = null;
+		matcher = null;
+		LIVE.remove(this);
+		if (Thread.currentThread() == owner) {
+			ENGINES.get().remove(backend, this);
+		}
+	}
+
+	private void checkOwner() {
+		if (closed) {
+			throw new IllegalStateException("The feature engine has been closed");
+		}
+		if (Thread.currentThread() != owner) {
+			throw new IllegalStateException("A feature engine can only be used by the thread that created it");
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package application;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/*
+ * The features of one captured frame, extracted once and shared by every matcher
+ * that looks at that frame. Nothing is drawn on the frame until all detections are
+ * done, so the detector always sees the clean camera image.
+ */
+public final class FrameFeatures {
+	private final SurfImage scene;
+	private final double scale;
+
+	private FrameFeatures(SurfImage scene, double scale) {
+		this.scene = scene;
+		this.scale = scale;
+	}
+
+	/*
+	 * Run feature extraction on the frame.
+	 */
+	public static FrameFeatures extract(Mat frame) {
+		return extract(frame, FeatureBackend.getDefault());
+	}
+
+	/*
+	 * Run feature extraction on the frame with the detector of the given backend.
+	 */
+	public static FrameFeatures extract(Mat frame, FeatureBackend backend) {
+		SurfImage scene = new SurfImage(frame);
+		scene.setBackend(backend);
+		scene.getSurfFeatures();
+		return new FrameFeatures(scene, 1.0);
+	}
+
+	/*
+	 * Run feature extraction on a copy of the frame scaled by the given factor; the
+	 * keypoints are in the coordinates of the scaled copy.
+	 */
+	public static FrameFeatures extract(Mat frame, FeatureBackend backend, double scale) {
+		if (scale == 1.0) {
+			return extract(frame, backend);
+		}
+		Mat scaled = MatArena.track(new Mat());
+		Imgproc.resize(frame, scaled, new Size(), scale, scale, Imgproc.INTER_AREA);
+		SurfImage scene = new SurfImage(scaled);
+		scene.setBackend(backend);
+		scene.getSurfFeatures();
+		return new FrameFeatures(scene, scale);
+	}
+
+	/*
+	 * Wrap a scene whose features have already been computed.
+	 */
+	public static FrameFeatures of(SurfImage scene) {
+		if (scene.getObjectDescriptor() == null) {
+			throw new IllegalArgumentException("The scene features have not been computed");
+		}
+		return new FrameFeatures(scene, 1.0);
+	}
+
+	public Mat getFrame() {
+		return scene.getObjectMat();
+	}
+
+	/*
+	 * Factor the frame was scaled by before extraction; 1 for the full frame.
+	 */
+	public double getScale() {
+		return scale;
+	}
+
+	public MatOfKeyPoint getKeyPoints() {
+		return scene.getObjectKeyPoints();
+	}
+
+	public Mat getDescriptor() {
+		return scene.getObjectDescriptor();
+	}
+
+	public int getKeyPointCount() {
+		return (int) scene.getObjectKeyPoints().total();
+	}
+
+	/*
+	 * The frame as a SurfImage, for the Match helpers that draw or compute homographies.
+	 */
+	public SurfImage asSurfImage() {
+		return scene;
+	}
+}
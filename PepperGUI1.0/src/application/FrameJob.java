@@ -0,0 +1,169 @@
+package application;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+
+/*
+ * A single frame travelling through the FramePipeline. Every stage reads what the
+ * previous stages left on the job and adds its own result.
+ *
+ * The job holds the only lease on its ring buffer until the pipeline releases it,
+ * so stages that run after detection may draw on the frame. The Mats created for
+ * the frame belong to the job's MatArena and are released with it.
+ */
+public class FrameJob {
+	private final FrameRing.Frame lease;
+	private final long captureTime;
+	private final MatArena arena = new MatArena();
+	private Mat frame;
+	private FrameFeatures features;
+	private Map<Double, FrameFeatures> scaledFeatures;
+	private Map<String, Match> matches = new LinkedHashMap<>();
+	private Mat output;
+	private RecognitionCache.Fingerprint fingerprint;
+	private boolean fromCache;
+	private Mat gateThumbnail;
+
+	public FrameJob(FrameRing.Frame lease) {
+		this.lease = lease;
+		this.captureTime = System.nanoTime();
+		this.frame = lease.getMat();
+		this.output = frame;
+	}
+
+	/*
+	 * Give the frame buffer back to its ring. Called once by the pipeline when the
+	 * job is finished or dropped.
+	 */
+	void release() {
+		lease.release();
+		arena.close();
+	}
+
+	/*
+	 * The lease on the ring buffer of the frame, for work that may outlive the job.
+	 */
+	FrameRing.Frame getLease() {
+		return lease;
+	}
+
+	/*
+	 * Owner of the native buffers created while processing this frame.
+	 */
+	public MatArena getArena() {
+		return arena;
+	}
+
+	/*
+	 * Time in milliseconds since the frame was captured.
+	 */
+	public long getAge() {
+		return (System.nanoTime() - captureTime) / 1000000L;
+	}
+
+	public long getSequence() {
+		return lease.getSequence();
+	}
+
+	public long getCaptureTime() {
+		return captureTime;
+	}
+
+	public Mat getFrame() {
+		return frame;
+	}
+
+	public void setFrame(Mat frame) {
+		this.frame = frame;
+	}
+
+	/*
+	 * Features of the full resolution frame, or null if detection only ran on
+	 * downscaled copies (or not at all, on tracked frames).
+	 */
+	public FrameFeatures getFeatures() {
+		return features;
+	}
+
+	/*
+	 * Features extracted from the frame scaled by the given factor.
+	 */
+	public FrameFeatures getFeatures(double scale) {
+		if (scale == 1.0) {
+			return features;
+		}
+		return scaledFeatures != null ? scaledFeatures.get(scale) : null;
+	}
+
+	public void setFeatures(FrameFeatures features) {
+		if (features.getScale() == 1.0) {
+			this.features = features;
+			return;
+		}
+		if (scaledFeatures == null) {
+			scaledFeatures = new LinkedHashMap<>();
+		}
+		scaledFeatures.put(features.getScale(), features);
+	}
+
+	public Map<String, Match> getMatches() {
+		return matches;
+	}
+
+	public Match getMatch(String objectName) {
+		return matches.get(objectName);
+	}
+
+	public void putMatch(String objectName, Match match) {
+		this.matches.put(objectName, match);
+	}
+
+	public boolean isFound(String objectName) {
+		Match match = matches.get(objectName);
+		return match != null && match.areMatch();
+	}
+
+	/*
+	 * Fingerprint of the frame for the RecognitionCache, or null if it was not taken.
+	 */
+	public RecognitionCache.Fingerprint getFingerprint() {
+		return fingerprint;
+	}
+
+	public void setFingerprint(RecognitionCache.Fingerprint fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/*
+	 * Whether the matches were looked up in the RecognitionCache instead of detected.
+	 */
+	public boolean isFromCache() {
+		return fromCache;
+	}
+
+	public void setFromCache(boolean fromCache) {
+		this.fromCache = fromCache;
+	}
+
+	/*
+	 * MotionGate thumbnail of the frame, kept until its results are known; null if the
+	 * frame was not tested or not detected.
+	 */
+	public Mat getGateThumbnail() {
+		return gateThumbnail;
+	}
+
+	public void setGateThumbnail(Mat gateThumbnail) {
+		this.gateThumbnail = gateThumbnail;
+	}
+
+	public Mat getOutput() {
+		return output;
+	}
+
+	public void setOutput(Mat output) {
+		this.output = output;
+	}
+}
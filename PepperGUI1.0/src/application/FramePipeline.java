@@ -0,0 +1,236 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Staged replacement for the single frameGrabber Runnable:
+ * capture -> feature extraction -> matching -> overlay -> display.
+ *
+ * Every stage runs on its own thread and receives frames from the previous stage
+ * through a one-slot queue. If a stage is still busy when a newer frame arrives,
+ * the frame waiting in its slot is thrown away and replaced, so a slow stage
+ * (SURF at 80-150 ms) drops stale frames instead of building up a backlog and the
+ * end-to-end latency stays bounded by the sum of the stage times.
+ */
+public class FramePipeline {
+
+	/*
+	 * One step of the pipeline. Returning null stops the frame at this stage.
+	 */
+	public interface Stage {
+		FrameJob process(FrameJob job) throws Exception;
+	}
+
+	private final Callable<FrameRing.Frame> source;
+	private volatile long capturePeriod;
+	private final List<String> stageNames = new ArrayList<>();
+	private final List<Stage> stages = new ArrayList<>();
+	private final List<BlockingQueue<FrameJob>> queues = new ArrayList<>();
+	private final List<Thread> threads = new ArrayList<>();
+	private final AtomicLong droppedFrames = new AtomicLong();
+	private volatile boolean running = false;
+	private volatile PipelineMetrics metrics;
+
+	/*
+	 * The source is polled every capturePeriod milliseconds on the capture thread. It
+	 * hands out a leased ring buffer (or null when there is no frame); the pipeline
+	 * releases the lease once the frame has left the last stage or was dropped.
+	 */
+	public FramePipeline(Callable<FrameRing.Frame> source, long capturePeriod) {
+		this.source = source;
+		this.capturePeriod = capturePeriod;
+	}
+
+	/*
+	 * Poll the source every capturePeriod milliseconds from the next frame on.
+	 */
+	public void setCapturePeriod(long capturePeriod) {
+		this.capturePeriod = capturePeriod;
+	}
+
+	public long getCapturePeriod() {
+		return capturePeriod;
+	}
+
+	/*
+	 * Append a stage; stages run in the order they were added.
+	 */
+	public FramePipeline addStage(String name, Stage stage) {
+		if (running) {
+			throw new IllegalStateException("Cannot add a stage to a running pipeline");
+		}
+		stageNames.add(name);
+		stages.add(stage);
+		queues.add(new ArrayBlockingQueue<FrameJob>(1));
+		return this;
+	}
+
+	/*
+	 * Record the capture and per-stage latencies, and the age of every frame that
+	 * makes it through the last stage as "total".
+	 */
+	public void setMetrics(PipelineMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+
+		Thread capture = new Thread(this::captureLoop, "pipeline-capture");
+		threads.add(capture);
+		for (int i = 0; i < stages.size(); i++) {
+			final int index = i;
+			threads.add(new Thread(() -> stageLoop(index), "pipeline-" + stageNames.get(i)));
+		}
+		for (Thread thread : threads) {
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	public synchronized void stop() {
+		running = false;
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join(capturePeriod * 10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		threads.clear();
+		for (BlockingQueue<FrameJob> queue : queues) {
+			FrameJob job;
+			while ((job = queue.poll()) != null) {
+				job.release();
+			}
+		}
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/*
+	 * Number of frames thrown away because the next stage was still busy.
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames.get();
+	}
+
+	/*
+	 * Frames waiting in front of each stage, by stage name.
+	 */
+	public Map<String, Integer> getQueueDepths() {
+		Map<String, Integer> depths = new LinkedHashMap<>();
+		for (int i = 0; i < queues.size(); i++) {
+			depths.put(stageNames.get(i), queues.get(i).size());
+		}
+		return depths;
+	}
+
+	private void captureLoop() {
+		while (running) {
+			long start = System.nanoTime();
+			try {
+				FrameRing.Frame frame = source.call();
+				if (frame != null) {
+					record("capture", start);
+					FrameJob job = new FrameJob(frame);
+					if (frame.getMat().empty() || queues.isEmpty()) {
+						job.release();
+					} else {
+						handOff(queues.get(0), job);
+					}
+				}
+			} catch (Exception e) {
+				System.err.println("Exception during the frame capture: " + e);
+			}
+
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			if (elapsed < capturePeriod) {
+				try {
+					Thread.sleep(capturePeriod - elapsed);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void stageLoop(int index) {
+		Stage stage = stages.get(index);
+		BlockingQueue<FrameJob> input = queues.get(index);
+		BlockingQueue<FrameJob> output = index + 1 < queues.size() ? queues.get(index + 1) : null;
+
+		try {
+			while (running) {
+				FrameJob job;
+				try {
+					job = input.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				FrameJob result = null;
+				long begin = System.nanoTime();
+				// Mats the stage creates for this frame are released with the job
+				MatArena previous = MatArena.setCurrent(job.getArena());
+				try {
+					result = stage.process(job);
+				} catch (Exception e) {
+					System.err.println("Exception in pipeline stage " + stageNames.get(index) + ": " + e);
+				} finally {
+					MatArena.setCurrent(previous);
+				}
+				record(stageNames.get(index), begin);
+
+				if (result != null && output != null) {
+					handOff(output, result);
+				} else {
+					if (result != null) {
+						record("total", result.getCaptureTime());
+					}
+					job.release();
+				}
+			}
+		} finally {
+			// release the detector/matcher this stage thread may have created
+			FeatureEngine.closeCurrent();
+		}
+	}
+
+	private void record(String name, long since) {
+		PipelineMetrics current = metrics;
+		if (current != null) {
+			current.record(name, System.nanoTime() - since);
+		}
+	}
+
+	/*
+	 * Latest frame wins: replace whatever is still waiting in the slot.
+	 */
+	private void handOff(BlockingQueue<FrameJob> queue, FrameJob job) {
+		while (!queue.offer(job)) {
+			FrameJob stale = queue.poll();
+			if (stale != null) {
+				stale.release();
+				droppedFrames.incrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package application;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Matches the capture rate to what the detection pipeline actually sustains.
+ *
+ * Pepper's camera was subscribed at 30 fps and polled every 33 ms whatever the
+ * detector managed, so most images crossed the Wi-Fi only to be dropped in front of
+ * the extract stage. The governor looks at the end-to-end latency (p90 of "total")
+ * and at the drops over a short window and walks a ladder of settings: the capture
+ * rate (ALVideoDevice subscription rate and poll period together), how often
+ * detection runs (every frame is still shown) and, as a last resort and only if
+ * allowed, the camera resolution.
+ *
+ * It steps down as soon as the latency budget is exceeded or more frames are
+ * dropped than shown, and steps back up only once the latency is well inside the
+ * budget, so it settles instead of oscillating. Other sources only get the poll
+ * period and the detection frequency adjusted. The settings in force are reported
+ * with the pipeline metrics.
+ */
+public class FrameRateGovernor implements AutoCloseable {
+	// fastest first: frames per second, detect every that many frames
+	private static final int[][] LADDER = { { 30, 1 }, { 15, 1 }, { 15, 2 }, { 10, 2 }, { 10, 3 }, { 5, 3 }, { 5, 5 } };
+	private static final String[] RESOLUTIONS = { "QQVGA", "QVGA", "VGA", "4VGA" };
+	// step up only when the p90 is below this fraction of the budget
+	private static final double HEADROOM = 0.6;
+	// a window with fewer frames than this and no drops says too little to act on
+	private static final int MIN_FRAMES = 5;
+
+	private final DetectionPipeline pipeline;
+	private final PipelineMetrics metrics;
+	private final long budget;
+	private final RobotFrameSource camera;
+	private final int fullResolution;
+	private int minResolution;
+	private final LatencyHistogram window = new LatencyHistogram();
+	private long lastDropped;
+	private int level = 0;
+	private ScheduledExecutorService scheduler;
+
+	/*
+	 * budget is the end-to-end latency to hold, in milliseconds. The pipeline must have
+	 * metrics; the governor reads their "total" stage.
+	 */
+	public FrameRateGovernor(DetectionPipeline pipeline, long budget) {
+		if (pipeline.getMetrics() == null) {
+			throw new IllegalArgumentException("The pipeline has no metrics to govern by");
+		}
+		this.pipeline = pipeline;
+		this.metrics = pipeline.getMetrics();
+		this.budget = TimeUnit.MILLISECONDS.toNanos(budget);
+		FrameSource source = pipeline.getSource();
+		this.camera = source instanceof RobotFrameSource ? (RobotFrameSource) source : null;
+		this.fullResolution = camera != null ? camera.getResolution() : 0;
+		this.minResolution = fullResolution;
+	}
+
+	/*
+	 * Let the governor lower the robot camera resolution down to this videoResolution
+	 * once the slowest rate is not enough. The match thresholds are tuned for the full
+	 * resolution, so this trades detections for latency.
+	 */
+	public synchronized void setMinResolution(int minResolution) {
+		this.minResolution = Math.min(minResolution, fullResolution);
+	}
+
+	/*
+	 * Apply the fastest settings and look at the pipeline every period seconds.
+	 */
+	public synchronized void start(long period) {
+		if (scheduler != null) {
+			return;
+		}
+		metrics.mirror("total", window);
+		metrics.attach(this);
+		lastDropped = pipeline.getDroppedFrames();
+		apply(0);
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "frame-governor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleAtFixedRate(this::adjust, period, period, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+		metrics.unmirror("total", window);
+		metrics.detach(this);
+	}
+
+	/*
+	 * Take one step down or up the ladder if the last window calls for it. Returns the
+	 * level now in force, 0 being the fastest.
+	 */
+	public synchronized int adjust() {
+		long completed = window.getCount();
+		long p90 = window.getPercentile(0.90);
+		window.reset();
+		long dropped = pipeline.getDroppedFrames();
+		long newlyDropped = dropped - lastDropped;
+		lastDropped = dropped;
+
+		int next = step(level, getSlowestLevel(), budget, p90, completed, newlyDropped);
+		if (next != level) {
+			apply(next);
+		}
+		return level;
+	}
+
+	public synchronized int getLevel() {
+		return level;
+	}
+
+	/*
+	 * The settings in force, e.g. "15 fps, detect every 2, QVGA".
+	 */
+	public synchronized String describe() {
+		String line = String.format(Locale.ROOT, "%d fps, detect every %d", getFrameRate(level), getDetectEvery(level));
+		if (camera != null) {
+			line += ", " + RESOLUTIONS[getResolution(level)];
+		}
+		return line;
+	}
+
+	private void apply(int next) {
+		pipeline.setCapturePeriod(1000 / getFrameRate(next));
+		pipeline.setDetectEvery(getDetectEvery(next));
+		if (camera != null) {
+			if (getFrameRate(next) != camera.getFrameRate()) {
+				camera.setFrameRate(getFrameRate(next));
+			}
+			if (getResolution(next) != camera.getResolution()) {
+				camera.setResolution(getResolution(next));
+			}
+		}
+		level = next;
+	}
+
+	/*
+	 * The level after a window with this p90 latency, frames shown and frames dropped:
+	 * one step down when over budget or dropping more than showing, one step up when
+	 * well within budget on enough frames with few drops, else the same.
+	 */
+	static int step(int level, int slowestLevel, long budget, long p90, long completed, long dropped) {
+		boolean overloaded = p90 > budget || dropped > completed;
+		boolean idle = completed >= MIN_FRAMES && p90 < budget * HEADROOM && dropped * 4 <= completed;
+		if (overloaded && level < slowestLevel) {
+			return level + 1;
+		}
+		if (!overloaded && idle && level > 0) {
+			return level - 1;
+		}
+		return level;
+	}
+
+	private int getSlowestLevel() {
+		return getSlowestLevel(fullResolution, minResolution);
+	}
+
+	static int getSlowestLevel(int fullResolution, int minResolution) {
+		return LADDER.length - 1 + (fullResolution - minResolution);
+	}
+
+	// levels past the ladder keep its last rung and lower the resolution one step each
+	private static int rung(int level) {
+		return Math.min(level, LADDER.length - 1);
+	}
+
+	static int getFrameRate(int level) {
+		return LADDER[rung(level)][0];
+	}
+
+	static int getDetectEvery(int level) {
+		return LADDER[rung(level)][1];
+	}
+
+	private int getResolution(int level) {
+		return getResolution(level, fullResolution);
+	}
+
+	static int getResolution(int level, int fullResolution) {
+		return fullResolution - (level - rung(level));
+	}
+}
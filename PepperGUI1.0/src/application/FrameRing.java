@@ -0,0 +1,135 @@
+package application;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+
+/*
+ * Fixed set of reusable frame buffers handed out as reference-counted leases.
+ *
+ * A producer acquire()s a free buffer (reference count 0 -> 1), fills it and passes
+ * the lease on. Every additional holder retain()s it and everyone release()s it
+ * when done; a buffer is only reused once its count is back to zero, so a frame
+ * can never be overwritten while a stage is still matching or drawing on it. When
+ * all buffers are taken, acquire() returns null and the producer drops the frame
+ * instead of allocating a new one.
+ */
+public class FrameRing {
+	private final Frame[] frames;
+	private final AtomicLong sequence = new AtomicLong();
+	private int next = 0;
+
+	/*
+	 * Buffers are sized by the first frame written into them.
+	 */
+	public FrameRing(int capacity) {
+		this.frames = new Frame[capacity];
+		for (int i = 0; i < capacity; i++) {
+			frames[i] = new Frame(new Mat());
+		}
+	}
+
+	/*
+	 * Buffers are allocated up front for frames of the given size and type.
+	 */
+	public FrameRing(int capacity, int rows, int cols, int type) {
+		this.frames = new Frame[capacity];
+		for (int i = 0; i < capacity; i++) {
+			frames[i] = new Frame(new Mat(rows, cols, type));
+		}
+	}
+
+	/*
+	 * Ring over the given buffers, which it takes over.
+	 */
+	FrameRing(Mat[] buffers) {
+		this.frames = new Frame[buffers.length];
+		for (int i = 0; i < buffers.length; i++) {
+			frames[i] = new Frame(buffers[i]);
+		}
+	}
+
+	/*
+	 * Lease a free buffer, stamped with the next sequence number, or null if every
+	 * buffer is still in use.
+	 */
+	public synchronized Frame acquire() {
+		for (int i = 0; i < frames.length; i++) {
+			int index = (next + i) % frames.length;
+			Frame frame = frames[index];
+			if (frame.references.compareAndSet(0, 1)) {
+				next = (index + 1) % frames.length;
+				frame.sequence = sequence.incrementAndGet();
+				return frame;
+			}
+		}
+		return null;
+	}
+
+	public int getCapacity() {
+		return frames.length;
+	}
+
+	/*
+	 * Number of buffers nobody holds a lease on.
+	 */
+	public int getAvailable() {
+		int available = 0;
+		for (Frame frame : frames) {
+			if (frame.references.get() == 0) {
+				available++;
+			}
+		}
+		return available;
+	}
+
+	/*
+	 * A lease on one buffer of the ring.
+	 */
+	public static final class Frame {
+		private final Mat mat;
+		private final AtomicInteger references = new AtomicInteger(0);
+		private volatile long sequence;
+
+		private Frame(Mat mat) {
+			this.mat = mat;
+		}
+
+		public Mat getMat() {
+			return mat;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public int getReferenceCount() {
+			return references.get();
+		}
+
+		/*
+		 * Take an additional lease on a frame that is still held.
+		 */
+		public Frame retain() {
+			int count;
+			do {
+				count = references.get();
+				if (count <= 0) {
+					throw new IllegalStateException("Frame " + sequence + " has already been released");
+				}
+			} while (!references.compareAndSet(count, count + 1));
+			return this;
+		}
+
+		/*
+		 * Give back one lease; the buffer is free again once all are returned.
+		 */
+		public void release() {
+			if (references.decrementAndGet() < 0) {
+				references.incrementAndGet();
+				throw new IllegalStateException("Frame " + sequence + " has been released too often");
+			}
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package application;
+
+/*
+ * Where the detection pipeline gets its frames from: a webcam, Pepper's camera or a
+ * recording. Frames are delivered in leased FrameRing buffers; the pipeline is the
+ * only caller of grab() and releases every lease it gets.
+ */
+public interface FrameSource {
+
+	/*
+	 * Start delivering frames. Returns false if the source cannot be opened.
+	 */
+	boolean open();
+
+	boolean isOpen();
+
+	/*
+	 * The next frame in a buffer leased from the ring, or null if there is no frame
+	 * right now (none received, end of a recording, or no free buffer).
+	 */
+	FrameRing.Frame grab(FrameRing ring);
+
+	/*
+	 * Frames per second the source actually delivers, or 0 if it does not measure it.
+	 */
+	default double getCaptureRate() {
+		return 0;
+	}
+
+	void close();
+}
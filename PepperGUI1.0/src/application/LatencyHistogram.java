@@ -0,0 +1,101 @@
+package application;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Fixed-size log-linear latency histogram, in the spirit of HdrHistogram.
+ *
+ * Values below 32 ns get a bucket each; above that every power of two is split into
+ * 16 linear sub-buckets, so any recorded value is reported within about 6% of its
+ * real value while the whole range up to Long.MAX_VALUE fits in under a thousand
+ * counters. Recording is a couple of atomic increments and never allocates, so it
+ * can sit on every stage of the frame loop.
+ */
+public class LatencyHistogram {
+	private static final int LINEAR_BUCKETS = 32;
+	private static final int SUB_BUCKETS = 16;
+	private static final int BUCKETS = LINEAR_BUCKETS + (63 - 4) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(indexOf(nanos));
+		totalCount.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max;
+		while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+			// lost the race to a concurrent record, try again
+		}
+	}
+
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	public long getMax() {
+		return maxNanos.get();
+	}
+
+	public double getMean() {
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double) totalNanos.get() / count;
+	}
+
+	/*
+	 * Smallest recorded value (to bucket precision) that the given fraction of the
+	 * values does not exceed, e.g. getPercentile(0.99) for p99. Zero when empty.
+	 */
+	public long getPercentile(double fraction) {
+		long count = totalCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), maxNanos.get());
+			}
+		}
+		return maxNanos.get();
+	}
+
+	/*
+	 * Forget everything recorded so far. Values recorded concurrently may be lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	static int indexOf(long value) {
+		if (value < LINEAR_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - 4;
+		int top = (int) (value >>> shift);
+		return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (top - SUB_BUCKETS);
+	}
+
+	static long highestValueOf(int index) {
+		if (index < LINEAR_BUCKETS) {
+			return index;
+		}
+		int offset = index - LINEAR_BUCKETS;
+		int shift = offset / SUB_BUCKETS + 1;
+		long top = SUB_BUCKETS + offset % SUB_BUCKETS;
+		return ((top + 1) << shift) - 1;
+	}
+}
@@ -44,7 +44,7 @@ public class Main extends Application {
 			primaryStage.show();
 			
 			// set the proper behavior on closing the application
-			PepperJFXRobotController controller = loader.getController();
+			PepperJFXController controller = loader.getController();
 			primaryStage.setOnCloseRequest((new EventHandler<WindowEvent>() {
 				public void handle(WindowEvent we)
 				{
@@ -0,0 +1,178 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+
+/*
+ * Scope that owns the native buffers created while processing one frame.
+ *
+ * A Mat's native memory is otherwise only freed when the GC finalizes its Java
+ * wrapper, and the wrappers are tiny, so the GC sees no reason to hurry while
+ * native memory keeps growing. Every FrameJob has an arena; the pipeline makes it
+ * the thread's current arena while a stage works on the job, the code that creates
+ * per-frame Mats registers them with track(), and they are all released together
+ * when the job leaves the pipeline.
+ *
+ * Mats that must outlive the frame (e.g. the tracker's points) are simply not
+ * tracked and are released by their owner. Work that may still run after the job
+ * is finished (a recognition task past its deadline) retain()s the arena, which is
+ * only released once every holder has closed it.
+ *
+ * Buffers on the Java side can be recycled the same way: work registered with
+ * recycle() runs when the arena is released (see Match, whose good match arrays go
+ * back to a pool).
+ *
+ * Outside of any arena track() does nothing, so reference images and one-off
+ * tools are unaffected. The static counters show whether native usage is steady.
+ */
+public final class MatArena implements AutoCloseable {
+	private static final ThreadLocal<MatArena> CURRENT = new ThreadLocal<>();
+	private static final AtomicLong LIVE = new AtomicLong();
+	private static final AtomicLong RELEASED = new AtomicLong();
+	private static final AtomicInteger OPEN = new AtomicInteger();
+
+	private final List<Mat> mats = new ArrayList<>();
+	private final List<Runnable> recyclers = new ArrayList<>();
+	private final AtomicInteger references = new AtomicInteger(1);
+
+	public MatArena() {
+		OPEN.incrementAndGet();
+	}
+
+	/*
+	 * Make the arena current on this thread and return the previous one, to be
+	 * restored with another setCurrent() when done.
+	 */
+	public static MatArena setCurrent(MatArena arena) {
+		MatArena previous = CURRENT.get();
+		if (arena == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(arena);
+		}
+		return previous;
+	}
+
+	public static MatArena current() {
+		return CURRENT.get();
+	}
+
+	/*
+	 * Register a Mat with the current arena, if there is one.
+	 */
+	public static <T extends Mat> T track(T mat) {
+		MatArena arena = CURRENT.get();
+		if (arena != null) {
+			arena.add(mat);
+		}
+		return mat;
+	}
+
+	/*
+	 * Register every Mat of the list with the current arena.
+	 */
+	public static <T extends Mat> List<T> trackAll(List<T> list) {
+		MatArena arena = CURRENT.get();
+		if (arena != null) {
+			for (T mat : list) {
+				arena.add(mat);
+			}
+		}
+		return list;
+	}
+
+	/*
+	 * Run the recycler when the current arena is released. Returns false, and never
+	 * runs it, if there is no current arena.
+	 */
+	public static boolean recycle(Runnable recycler) {
+		MatArena arena = CURRENT.get();
+		if (arena == null) {
+			return false;
+		}
+		synchronized (arena) {
+			if (arena.references.get() <= 0) {
+				throw new IllegalStateException("The arena has already been released");
+			}
+			arena.recyclers.add(recycler);
+		}
+		return true;
+	}
+
+	/*
+	 * Mats registered with arenas that have not been released yet.
+	 */
+	public static long getLiveMats() {
+		return LIVE.get();
+	}
+
+	public static long getReleasedMats() {
+		return RELEASED.get();
+	}
+
+	/*
+	 * Arenas created and not released yet; steady unless jobs are leaked.
+	 */
+	public static int getOpenArenas() {
+		return OPEN.get();
+	}
+
+	public synchronized <T extends Mat> T add(T mat) {
+		if (references.get() <= 0) {
+			throw new IllegalStateException("The arena has already been released");
+		}
+		mats.add(mat);
+		LIVE.incrementAndGet();
+		return mat;
+	}
+
+	public synchronized int size() {
+		return mats.size();
+	}
+
+	/*
+	 * Take an additional hold on the arena.
+	 */
+	public MatArena retain() {
+		int count;
+		do {
+			count = references.get();
+			if (count <= 0) {
+				throw new IllegalStateException("The arena has already been released");
+			}
+		} while (!references.compareAndSet(count, count + 1));
+		return this;
+	}
+
+	/*
+	 * Give back one hold; the last one releases every Mat in the arena.
+	 */
+	@Override
+	public void close() {
+		int count = references.decrementAndGet();
+		if (count > 0) {
+			return;
+		}
+		if (count < 0) {
+			references.incrementAndGet();
+			throw new IllegalStateException("The arena has been closed too often");
+		}
+		synchronized (this) {
+			for (Mat mat : mats) {
+				mat.release();
+			}
+			LIVE.addAndGet(-mats.size());
+			RELEASED.addAndGet(mats.size());
+			mats.clear();
+			for (Runnable recycler : recyclers) {
+				recycler.run();
+			}
+			recyclers.clear();
+		}
+		OPEN.decrementAndGet();
+	}
+}
@@ -2,8 +2,11 @@ package application;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.opencv.calib3d.Calib3d;
 import org.opencv.core.Core;
@@ -14,7 +17,6 @@ import org.opencv.core.MatOfDMatch;
 import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 import org.opencv.core.Scalar;
-import org.opencv.features2d.DescriptorMatcher;
 import org.opencv.features2d.Features2d;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
@@ -25,22 +27,103 @@ import Utils.Utils;
  * Created by Sergio Rodriguez 12/7/17
  */
 public class Match {
+	//Rotation/scale voting before RANSAC: 30 degree bins, half octave bins over 4 octaves either way
+	private static final int ORIENTATION_BINS = 12;
+	private static final int SCALE_BINS = 16;
+	//Outlines smaller than this (in pixels) or grown more than this many times are not real objects
+	private static final double MIN_OUTLINE_AREA = 256;
+	private static final double MAX_AREA_GROWTH = 100;
+	private static final int[] NO_INDICES = new int[0];
+	private static final float[] NO_DISTANCES = new float[0];
+	
 	private Integer matchThreshold = 100;
 	private float distanceThreshold = 0.7f;
 	private List<MatOfDMatch> matches;
+	// good matches as parallel arrays; only the first goodCount entries are used
+	private int[] queryIndices = NO_INDICES;
+	private int[] trainIndices = NO_INDICES;
+	private float[] distances = NO_DISTANCES;
+	private int goodCount = 0;
+	// good match index of every RANSAC inlier of the last verified homography
+	private int[] inlierIndices = NO_INDICES;
+	private int inlierCount = 0;
+	// built from the arrays on first request
 	private LinkedList<DMatch> goodMatchesList;
+	private Mat knownHomography;
+	private boolean tracked = false;
 	
 	//Match Object Constructor
 	public Match(SurfImage object, SurfImage scene) {
+		distanceThreshold = object.getBackend().getRatioThreshold();
 		findMatches(object, scene);
 	}
 	
+	/*
+	 * Match an object against a frame whose features were already extracted.
+	 */
+	public Match(SurfImage object, FrameFeatures frame) {
+		distanceThreshold = object.getBackend().getRatioThreshold();
+		findMatches(object, frame.asSurfImage());
+	}
+	
+	/*
+	 * Match built from good matches found elsewhere (see ObjectCatalog); queryIdx must
+	 * index the object keypoints and trainIdx the scene keypoints.
+	 */
+	Match(LinkedList<DMatch> goodMatchesList) {
+		setGoodMatchesList(goodMatchesList);
+	}
+	
+	/*
+	 * Same, from parallel arrays of which the first count entries are used.
+	 */
+	Match(int[] queryIndices, int[] trainIndices, float[] distances, int count) {
+		this.queryIndices = queryIndices;
+		this.trainIndices = trainIndices;
+		this.distances = distances;
+		this.goodCount = count;
+	}
+	
+	/*
+	 * Same, copying count entries from offset on into arrays of the thread's pool (see
+	 * ObjectCatalog, whose vote arrays are reused for the next frame).
+	 */
+	static Match copyOf(int[] queryIndices, int[] trainIndices, float[] distances, int offset, int count) {
+		Match match = new Match(NO_INDICES, NO_INDICES, NO_DISTANCES, 0);
+		if(count == 0)
+			return match;
+		match.useArrays(PointBuffers.current().acquire(count));
+		System.arraycopy(queryIndices, offset, match.queryIndices, 0, count);
+		System.arraycopy(trainIndices, offset, match.trainIndices, 0, count);
+		System.arraycopy(distances, offset, match.distances, 0, count);
+		match.goodCount = count;
+		return match;
+	}
+	
+	/*
+	 * Match of an object followed by the ObjectTracker instead of detected: there are no
+	 * feature matches, only where the object now is.
+	 */
+	static Match tracked(Mat homography) {
+		Match match = new Match(new LinkedList<DMatch>());
+		match.knownHomography = homography;
+		match.tracked = true;
+		return match;
+	}
+	
 	/*
 	 * Will return the result of comparing two image's SURF features; if the number of good matches
-	 * is above the match threshold determined by the distance threshold.
+	 * is above the match threshold determined by the distance threshold. Once the homography has been
+	 * looked for, an object that could not be located no longer counts as a match.
 	 */
 	public boolean areMatch() {
-		if(goodMatchesList.size() >= matchThreshold)
+		if(tracked)
+			return true;
+		
+		if(knownHomography != null && knownHomography.empty())
+			return false;
+		
+		if(goodCount >= matchThreshold)
 			return true;
 		
 		return false;
@@ -52,33 +135,105 @@ public class Match {
 	private void findMatches(SurfImage object, SurfImage scene){
 		//Get the features which match with 
 		matches = new LinkedList<MatOfDMatch>();
-		DescriptorMatcher descriptorMatcher = DescriptorMatcher.create(DescriptorMatcher.FLANNBASED);
         
-        descriptorMatcher.knnMatch(object.getObjectDescriptor(), scene.getObjectDescriptor(), matches, 2);
+        FeatureEngine.current(object.getBackend()).knnMatch(object.getObjectDescriptor(), scene.getObjectDescriptor(), matches, 2);
+        MatArena.trackAll(matches);
         
 		//Get the 'good'matches suing the getGoodMacthes function -- look at getGoodMatches
-        goodMatchesList = new LinkedList<>();
-		goodMatchesList = findGoodMatches(matches);
+		findGoodMatches(matches);
 	}
 
 	/*
 	 * Used to find 'good' matching SURF features between two images, as defined by the distance threshold.
+	 * Each knn result is read with one bulk get of its two DMatch rows (queryIdx, trainIdx, imgIdx,
+	 * distance as floats) instead of being converted to DMatch objects. The good match arrays come from
+	 * the thread's PointBuffers and go back there with the frame's MatArena, so once the pool is warm
+	 * the ratio test allocates nothing.
 	 */
-	private LinkedList<DMatch> findGoodMatches(List<MatOfDMatch> matches){
+	private void findGoodMatches(List<MatOfDMatch> matches){
+		int size = matches.size();
+		PointBuffers buffers = PointBuffers.current();
+		useArrays(buffers.acquire(size));
+		goodCount = 0;
+		goodMatchesList = null;
+		
+		float[] pair = buffers.pair;
 		//Determines if matches are satisfactory by looking at the distance between matches.
-		for (int i = 0; i < matches.size(); i++) {
+		for (int i = 0; i < size; i++) {
 		    MatOfDMatch matofDMatch = matches.get(i);
-		    DMatch[] dmatcharray = matofDMatch.toArray();
-		    DMatch m1 = dmatcharray[0];
-		    DMatch m2 = dmatcharray[1];
+		    if (matofDMatch.rows() < 2)
+		    	continue;
+		    matofDMatch.get(0, 0, pair);
 
-		    if (m1.distance <= m2.distance * distanceThreshold)
-		    	goodMatchesList.addLast(m1);
+		    if (pair[3] <= pair[7] * distanceThreshold) {
+		    	queryIndices[goodCount] = (int) pair[0];
+		    	trainIndices[goodCount] = (int) pair[1];
+		    	distances[goodCount] = pair[3];
+		    	goodCount++;
+		    }
 		}
-
-		return goodMatchesList;
 	}	
 	
+	/*
+	 * Take the arrays of a pooled GoodMatches as this match's good match and inlier arrays.
+	 */
+	private void useArrays(GoodMatches arrays) {
+		queryIndices = arrays.queryIndices;
+		trainIndices = arrays.trainIndices;
+		distances = arrays.distances;
+		inlierIndices = arrays.inlierIndices;
+		inlierCount = 0;
+	}
+	
+	/*
+	 * Number of good matches.
+	 */
+	public int getGoodMatchCount() {
+		return goodCount;
+	}
+	
+	/*
+	 * Object keypoint index of every good match; only the first getGoodMatchCount() entries are used.
+	 */
+	public int[] getQueryIndices() {
+		return queryIndices;
+	}
+	
+	/*
+	 * Scene keypoint index of every good match; only the first getGoodMatchCount() entries are used.
+	 */
+	public int[] getTrainIndices() {
+		return trainIndices;
+	}
+	
+	/*
+	 * Good match index (into getQueryIndices and getTrainIndices) of every RANSAC inlier of the
+	 * homography last verified by estimateHomography; only the first getInlierCount() entries are used.
+	 */
+	public int[] getInlierIndices() {
+		return inlierIndices;
+	}
+	
+	public int getInlierCount() {
+		return inlierCount;
+	}
+	
+	public boolean isTracked() {
+		return tracked;
+	}
+	
+	/*
+	 * Object-to-scene homography if it is already known, e.g. from getHomography or tracking, else
+	 * null. An empty Mat means the object could not be located.
+	 */
+	public Mat getKnownHomography() {
+		return knownHomography;
+	}
+	
+	void setKnownHomography(Mat knownHomography) {
+		this.knownHomography = knownHomography;
+	}
+	
 	public Integer getMatchThreshold() {
 		return matchThreshold;
 	}
@@ -104,10 +259,26 @@ public class Match {
 	}
 
 	public LinkedList<DMatch> getGoodMatchesList() {
+		if (goodMatchesList == null) {
+			goodMatchesList = new LinkedList<>();
+			for (int i = 0; i < goodCount; i++) {
+				goodMatchesList.addLast(new DMatch(queryIndices[i], trainIndices[i], distances[i]));
+			}
+		}
 		return goodMatchesList;
 	}
 
 	public void setGoodMatchesList(LinkedList<DMatch> goodMatchesList) {
+		int size = goodMatchesList.size();
+		if(size > 0)
+			useArrays(PointBuffers.current().acquire(size));
+		goodCount = 0;
+		for (DMatch dMatch : goodMatchesList) {
+			queryIndices[goodCount] = dMatch.queryIdx;
+			trainIndices[goodCount] = dMatch.trainIdx;
+			distances[goodCount] = dMatch.distance;
+			goodCount++;
+		}
 		this.goodMatchesList = goodMatchesList;
 	}
 
@@ -121,39 +292,197 @@ public class Match {
 		//Get the image connecting the matching points
     	MatOfDMatch matOfGoodMatches = new MatOfDMatch();
     	matOfGoodMatches.fromList(matchObject.getGoodMatchesList());
-    	Mat matchesImg = new Mat();
+    	Mat matchesImg = MatArena.track(new Mat());
     	Features2d.drawMatches(object.getObjectMat(), object.getObjectKeyPoints(), scene.getObjectMat(), scene.getObjectKeyPoints(), matOfGoodMatches, matchesImg);
 
 		return matchesImg;
 	}
 	
 	/*
-	 * Will return the homography between two images by looking at the matching SURF features.
+	 * Will return the homography between two images by looking at the matching SURF features. It is
+	 * computed once and kept on the match, so drawing the outline later does not fit it again; an empty
+	 * Mat means the object could not be located.
 	 */
 	public static Mat getHomography(Match matchObject, SurfImage object, SurfImage scene){
-		if(matchObject.getGoodMatchesList().size() <= matchObject.getMatchThreshold()) {
-			return new Mat();
+		if(matchObject.knownHomography == null)
+			matchObject.knownHomography = estimateHomography(matchObject, object, scene);
+		
+		return matchObject.knownHomography;
+	}
+	
+	/*
+	 * The verification behind getHomography, run on every call: only the good matches that agree on
+	 * how much the object is rotated and scaled go to RANSAC, and a homography no flat object could
+	 * produce is rejected. Returns an empty Mat if too few matches agree or the homography is rejected.
+	 * The RANSAC inliers of an accepted homography are kept on the match, see getInlierIndices.
+	 */
+	public static Mat estimateHomography(Match matchObject, SurfImage object, SurfImage scene){
+		matchObject.inlierCount = 0;
+		int goodCount = matchObject.getGoodMatchCount();
+		if(goodCount <= matchObject.getMatchThreshold()) {
+			return MatArena.track(new Mat());
 		}
 		
-		List<org.opencv.core.KeyPoint> objKeypointlist = object.getObjectKeyPoints().toList();
-		List<org.opencv.core.KeyPoint> scnKeypointlist = scene.getObjectKeyPoints().toList();
-
-		LinkedList<Point> objectPoints = new LinkedList<>();
-		LinkedList<Point> scenePoints = new LinkedList<>();
-
-		for (int i = 0; i < matchObject.getGoodMatchesList().size(); i++) {
-		    objectPoints.addLast(objKeypointlist.get(matchObject.getGoodMatchesList().get(i).queryIdx).pt);
-		    scenePoints.addLast(scnKeypointlist.get(matchObject.getGoodMatchesList().get(i).trainIdx).pt);
+		PointBuffers buffers = PointBuffers.current();
+		buffers.ensureCapacity(goodCount);
+		int[] selected = buffers.selected;
+		int count = consistentMatches(matchObject, object.getKeyPointShapes(), scene.getKeyPointShapes(), selected);
+		if(count <= matchObject.getMatchThreshold()) {
+			return MatArena.track(new Mat());
+		}
+		
+		//Keypoint coordinates are read once per image; the matched pairs are gathered by index
+		float[] objectCoordinates = object.getKeyPointCoordinates();
+		float[] sceneCoordinates = scene.getKeyPointCoordinates();
+		float[] objectData = buffers.objectData;
+		float[] sceneData = buffers.sceneData;
+		int[] queryIndices = matchObject.getQueryIndices();
+		int[] trainIndices = matchObject.getTrainIndices();
+		for (int i = 0; i < count; i++) {
+			int q = queryIndices[selected[i]] << 1;
+			int t = trainIndices[selected[i]] << 1;
+			objectData[i << 1] = objectCoordinates[q];
+			objectData[(i << 1) + 1] = objectCoordinates[q + 1];
+			sceneData[i << 1] = sceneCoordinates[t];
+			sceneData[(i << 1) + 1] = sceneCoordinates[t + 1];
 		}
 
-		MatOfPoint2f objMatOfPoint2f = new MatOfPoint2f();
-		objMatOfPoint2f.fromList(objectPoints);
-		MatOfPoint2f scnMatOfPoint2f = new MatOfPoint2f();
-		scnMatOfPoint2f.fromList(scenePoints);
-
-		Mat homography = Calib3d.findHomography(objMatOfPoint2f, scnMatOfPoint2f, Calib3d.RANSAC, 3);
+		MatOfPoint2f objectPoints = buffers.objectPoints(count);
+		MatOfPoint2f scenePoints = buffers.scenePoints(count);
+		Mat inlierMask = buffers.inlierMask();
+		Mat homography = Calib3d.findHomography(objectPoints, scenePoints, Calib3d.RANSAC, 3, inlierMask, 2000, 0.995);
+		objectPoints.release();
+		scenePoints.release();
 		
-		return homography;
+		if(isDegenerate(homography, object.getWidth(), object.getHeight())) {
+			homography.release();
+			return MatArena.track(new Mat());
+		}
+		
+		//Remember which of the good matches RANSAC kept, e.g. to seed the ObjectTracker with
+		byte[] mask = buffers.mask;
+		inlierMask.get(0, 0, mask);
+		//Pooled matches have room for every good match; only matches built from caller arrays need more
+		int[] inliers = matchObject.inlierIndices;
+		if(inliers.length < count)
+			inliers = new int[count];
+		int inlierCount = 0;
+		for (int i = 0; i < count; i++) {
+			if(mask[i] != 0)
+				inliers[inlierCount++] = selected[i];
+		}
+		matchObject.inlierIndices = inliers;
+		matchObject.inlierCount = inlierCount;
+		return MatArena.track(homography);
+	}
+	
+	/*
+	 * Hough-style prefilter: every good match votes for the rotation and scale change between its two
+	 * keypoints, and only the matches in the strongest bin (or next to it) are kept. A real object
+	 * gives most of its matches the same rotation and scale, while ratio test survivors that hit
+	 * random structure scatter. Writes the indices of the kept good matches into selected and
+	 * returns how many there are.
+	 */
+	static int consistentMatches(Match matchObject, float[] objectShapes, float[] sceneShapes, int[] selected) {
+		int count = matchObject.getGoodMatchCount();
+		int[] queryIndices = matchObject.getQueryIndices();
+		int[] trainIndices = matchObject.getTrainIndices();
+		int[] votes = PointBuffers.current().votes;
+		Arrays.fill(votes, 0);
+		
+		//selected holds the bin of every match until the peak is known
+		for (int i = 0; i < count; i++) {
+			int q = queryIndices[i] << 1;
+			int t = trainIndices[i] << 1;
+			int orientation = 0;
+			if(objectShapes[q + 1] >= 0 && sceneShapes[t + 1] >= 0) {
+				double angle = sceneShapes[t + 1] - objectShapes[q + 1];
+				angle -= 360 * Math.floor(angle / 360);
+				orientation = (int) (angle * ORIENTATION_BINS / 360) % ORIENTATION_BINS;
+			}
+			int scale = SCALE_BINS / 2;
+			if(objectShapes[q] > 0 && sceneShapes[t] > 0) {
+				double octaves = Math.log(sceneShapes[t] / objectShapes[q]) / Math.log(2);
+				scale = (int) Math.floor(octaves * 2 + SCALE_BINS / 2);
+				scale = Math.max(0, Math.min(SCALE_BINS - 1, scale));
+			}
+			selected[i] = orientation * SCALE_BINS + scale;
+			votes[selected[i]]++;
+		}
+		
+		int peak = 0;
+		int peakVotes = -1;
+		for (int orientation = 0; orientation < ORIENTATION_BINS; orientation++) {
+			for (int scale = 0; scale < SCALE_BINS; scale++) {
+				int sum = 0;
+				for (int dOrientation = -1; dOrientation <= 1; dOrientation++) {
+					int o = (orientation + dOrientation + ORIENTATION_BINS) % ORIENTATION_BINS;
+					for (int s = Math.max(0, scale - 1); s <= Math.min(SCALE_BINS - 1, scale + 1); s++) {
+						sum += votes[o * SCALE_BINS + s];
+					}
+				}
+				if(sum > peakVotes) {
+					peakVotes = sum;
+					peak = orientation * SCALE_BINS + scale;
+				}
+			}
+		}
+		
+		int peakOrientation = peak / SCALE_BINS;
+		int peakScale = peak % SCALE_BINS;
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			int orientationDistance = Math.abs(selected[i] / SCALE_BINS - peakOrientation);
+			orientationDistance = Math.min(orientationDistance, ORIENTATION_BINS - orientationDistance);
+			if(orientationDistance <= 1 && Math.abs(selected[i] % SCALE_BINS - peakScale) <= 1) {
+				//kept <= i, so the bins still to be read are not overwritten
+				selected[kept++] = i;
+			}
+		}
+		return kept;
+	}
+	
+	/*
+	 * True if the homography cannot come from a flat object seen by a camera: some corner projects
+	 * behind the camera, the outline is mirrored, twisted or concave, or it is implausibly small or
+	 * large compared with the object image. Checked on the projected corners, nothing is drawn.
+	 */
+	static boolean isDegenerate(Mat homography, int width, int height) {
+		if(homography.empty())
+			return true;
+		
+		double[] h = new double[9];
+		homography.get(0, 0, h);
+		return isDegenerate(h, width, height);
+	}
+	
+	/*
+	 * Same, for the 3x3 homography given row by row.
+	 */
+	static boolean isDegenerate(double[] h, int width, int height) {
+		double[][] corners = { {0, 0}, {width, 0}, {width, height}, {0, height} };
+		double[] xs = new double[4];
+		double[] ys = new double[4];
+		for (int i = 0; i < 4; i++) {
+			double w = h[6] * corners[i][0] + h[7] * corners[i][1] + h[8];
+			if(w <= 0)
+				return true;
+			xs[i] = (h[0] * corners[i][0] + h[1] * corners[i][1] + h[2]) / w;
+			ys[i] = (h[3] * corners[i][0] + h[4] * corners[i][1] + h[5]) / w;
+		}
+		
+		//The object corners turn clockwise on screen; so must every corner of the outline
+		double area = 0;
+		for (int i = 0; i < 4; i++) {
+			int next = (i + 1) % 4;
+			int after = (i + 2) % 4;
+			double cross = (xs[next] - xs[i]) * (ys[after] - ys[next]) - (ys[next] - ys[i]) * (xs[after] - xs[next]);
+			if(cross <= 0)
+				return true;
+			area += xs[i] * ys[next] - xs[next] * ys[i];
+		}
+		area /= 2;
+		return area < MIN_OUTLINE_AREA || area > MAX_AREA_GROWTH * width * height;
 	}
 		
 	/*
@@ -161,34 +490,170 @@ public class Match {
 	 * found.
 	 */
 	public static Mat getBorderOutlineImage(Match matchObject, SurfImage object, SurfImage scene) {
-		Mat homography = getHomography(matchObject, object, scene);
 		Mat objectInScene = scene.getObjectMat();
+		drawBorderOutline(objectInScene, matchObject, object, scene);
+		
+		return objectInScene;
+	}
+	
+	/*
+	 * Will draw the outline of the object in the scene onto the given canvas, which must have the scene's
+	 * size. Returns false if the object could not be located. The scene is only needed when the
+	 * homography is not known yet.
+	 */
+	public static boolean drawBorderOutline(Mat canvas, Match matchObject, SurfImage object, SurfImage scene) {
+		Mat homography = matchObject.getKnownHomography();
+		if(homography == null)
+			homography = getHomography(matchObject, object, scene);
 		
 		if( homography.empty()) {
-			return objectInScene;
+			return false;
 		}
 		
 		Mat obj_corners = new Mat(4, 1, CvType.CV_32FC2);
 		Mat scene_corners = new Mat(4, 1, CvType.CV_32FC2);
 
 		obj_corners.put(0, 0, new double[]{0, 0});
-		obj_corners.put(1, 0, new double[]{object.getObjectMat().cols(), 0});
-		obj_corners.put(2, 0, new double[]{object.getObjectMat().cols(), object.getObjectMat().rows()});
-		obj_corners.put(3, 0, new double[]{0, object.getObjectMat().rows()});
+		obj_corners.put(1, 0, new double[]{object.getWidth(), 0});
+		obj_corners.put(2, 0, new double[]{object.getWidth(), object.getHeight()});
+		obj_corners.put(3, 0, new double[]{0, object.getHeight()});
 
 		Core.perspectiveTransform(obj_corners, scene_corners, homography);
 
-		Imgproc.line(objectInScene, new Point(scene_corners.get(0, 0)), new Point(scene_corners.get(1, 0)), new Scalar(0, 255, 0), 4);
-		Imgproc.line(objectInScene, new Point(scene_corners.get(1, 0)), new Point(scene_corners.get(2, 0)), new Scalar(0, 255, 0), 4);
-		Imgproc.line(objectInScene, new Point(scene_corners.get(2, 0)), new Point(scene_corners.get(3, 0)), new Scalar(0, 255, 0), 4);
-		Imgproc.line(objectInScene, new Point(scene_corners.get(3, 0)), new Point(scene_corners.get(0, 0)), new Scalar(0, 255, 0), 4);
+		Imgproc.line(canvas, new Point(scene_corners.get(0, 0)), new Point(scene_corners.get(1, 0)), new Scalar(0, 255, 0), 4);
+		Imgproc.line(canvas, new Point(scene_corners.get(1, 0)), new Point(scene_corners.get(2, 0)), new Scalar(0, 255, 0), 4);
+		Imgproc.line(canvas, new Point(scene_corners.get(2, 0)), new Point(scene_corners.get(3, 0)), new Scalar(0, 255, 0), 4);
+		Imgproc.line(canvas, new Point(scene_corners.get(3, 0)), new Point(scene_corners.get(0, 0)), new Scalar(0, 255, 0), 4);
+		obj_corners.release();
+		scene_corners.release();
 		
-		return objectInScene;
+		return true;
+	}
+	
+	/*
+	 * Good match and inlier arrays of one Match. Handed back to the pool they came from when
+	 * the MatArena of the frame is released, which may happen on another thread.
+	 */
+	private static final class GoodMatches implements Runnable {
+		private final Queue<GoodMatches> pool;
+		private int[] queryIndices = NO_INDICES;
+		private int[] trainIndices = NO_INDICES;
+		private float[] distances = NO_DISTANCES;
+		private int[] inlierIndices = NO_INDICES;
+		
+		GoodMatches(Queue<GoodMatches> pool) {
+			this.pool = pool;
+		}
+		
+		void ensureCapacity(int count) {
+			if (queryIndices.length >= count)
+				return;
+			int capacity = Math.max(count, queryIndices.length * 2);
+			queryIndices = new int[capacity];
+			trainIndices = new int[capacity];
+			distances = new float[capacity];
+			inlierIndices = new int[capacity];
+		}
+		
+		@Override
+		public void run() {
+			pool.offer(this);
+		}
+	}
+	
+	/*
+	 * Per-thread buffers for the ratio test and getHomography, grown as needed and never shrunk,
+	 * so neither allocates once they have reached their working size. The good match arrays of
+	 * the matches made on the thread are pooled here as well; outside of a MatArena they are
+	 * never given back and a match simply keeps its own.
+	 */
+	private static final class PointBuffers {
+		private static final ThreadLocal<PointBuffers> CURRENT = ThreadLocal.withInitial(PointBuffers::new);
+		
+		private final Queue<GoodMatches> pool = new ConcurrentLinkedQueue<>();
+		// the two nearest neighbours of a knn result as (queryIdx, trainIdx, imgIdx, distance) floats
+		private final float[] pair = new float[8];
+		private final int[] votes = new int[ORIENTATION_BINS * SCALE_BINS];
+		private float[] objectData = new float[0];
+		private float[] sceneData = new float[0];
+		private int[] selected = new int[0];
+		private byte[] mask = new byte[0];
+		// native storage is only created once points are needed
+		private int capacity = 0;
+		private Mat objectStorage;
+		private Mat sceneStorage;
+		private Mat inlierMask;
+		
+		static PointBuffers current() {
+			return CURRENT.get();
+		}
+		
+		/*
+		 * Arrays for count good matches, recycled with the current MatArena.
+		 */
+		GoodMatches acquire(int count) {
+			GoodMatches arrays = pool.poll();
+			if (arrays == null)
+				arrays = new GoodMatches(pool);
+			arrays.ensureCapacity(count);
+			MatArena.recycle(arrays);
+			return arrays;
+		}
+		
+		void ensureCapacity(int count) {
+			if (capacity >= count)
+				return;
+			capacity = Math.max(count, capacity * 2);
+			objectData = new float[capacity * 2];
+			sceneData = new float[capacity * 2];
+			selected = new int[capacity];
+			mask = new byte[capacity];
+			//The old storage is freed now rather than whenever its wrapper is finalized
+			if (objectStorage != null) {
+				objectStorage.release();
+				sceneStorage.release();
+			}
+			objectStorage = new Mat(capacity, 1, CvType.CV_32FC2);
+			sceneStorage = new Mat(capacity, 1, CvType.CV_32FC2);
+		}
+		
+		/*
+		 * Output mask for findHomography, kept across calls; only a different point count makes
+		 * findHomography reallocate it.
+		 */
+		Mat inlierMask() {
+			if (inlierMask == null)
+				inlierMask = new Mat();
+			return inlierMask;
+		}
+		
+		/*
+		 * The first count object points, copied into the native buffer.
+		 */
+		MatOfPoint2f objectPoints(int count) {
+			return fill(objectStorage, objectData, count);
+		}
+		
+		MatOfPoint2f scenePoints(int count) {
+			return fill(sceneStorage, sceneData, count);
+		}
+		
+		/*
+		 * A header over the first count rows of the storage; release it after use.
+		 */
+		private static MatOfPoint2f fill(Mat storage, float[] data, int count) {
+			Mat rows = storage.rowRange(0, count);
+			MatOfPoint2f points = new MatOfPoint2f(rows);
+			rows.release();
+			//Only the first count rows fit, so only those are copied
+			points.put(0, 0, data);
+			return points;
+		}
 	}
 	
 	public static void main(String[] args) throws IOException {
-		SurfImage bookSurfImage = new SurfImage("/home/serg/eclipse-workspace/JavaGUI_OpenCV/PepperGUI1.0/images/bookObject.jpg");
-		SurfImage bookSceneSurfImage =  new SurfImage("/home/serg/eclipse-workspace/JavaGUI_OpenCV/PepperGUI1.0/images/bookScene.jpg");
+		SurfImage bookSurfImage = new SurfImage("images/bookObject.jpg");
+		SurfImage bookSceneSurfImage =  new SurfImage("images/bookScene.jpg");
 		bookSurfImage.getSurfFeatures();
 		bookSceneSurfImage.getSurfFeatures();
 		
@@ -0,0 +1,114 @@
+package application;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/*
+ * Cheap scene change detector in front of feature detection.
+ *
+ * Every frame is shrunk to a 32x24 grey thumbnail (INTER_AREA averages away most of
+ * the sensor noise) and compared with the thumbnail of the frame the last detection
+ * ran on. The scene has changed when more than a given fraction of the thumbnail
+ * pixels differ by more than a given number of grey levels; until then the results
+ * of that detection still hold and SURF does not need to run. Comparing with the
+ * last detected frame rather than the previous one means slow drifts add up and
+ * are caught, and detection is forced anyway after maxUnchanged frames.
+ *
+ * The whole test costs well under a millisecond on a QVGA frame.
+ */
+public class MotionGate {
+	private static final Size THUMBNAIL = new Size(32, 24);
+
+	private final double changedFraction;
+	private final double pixelThreshold;
+	private final int maxUnchanged;
+	private final Mat thumbnail = new Mat();
+	private final Mat reference = new Mat();
+	private final Mat small = new Mat();
+	private final Mat difference = new Mat();
+	private int unchangedFrames = 0;
+	private long skippedTotal = 0;
+	private double lastChange = 1;
+
+	/*
+	 * 2% of the thumbnail changed by more than 12 grey levels, detection at least every
+	 * 150 frames.
+	 */
+	public MotionGate() {
+		this(0.02, 12, 150);
+	}
+
+	public MotionGate(double changedFraction, double pixelThreshold, int maxUnchanged) {
+		this.changedFraction = changedFraction;
+		this.pixelThreshold = pixelThreshold;
+		this.maxUnchanged = maxUnchanged;
+	}
+
+	/*
+	 * Whether the frame differs enough from the last detected one to detect again.
+	 * When detection does run on it, take getThumbnail() and hand it to markDetected()
+	 * once the results of the frame are in place.
+	 */
+	public synchronized boolean hasChanged(Mat frame) {
+		Imgproc.resize(frame, small, THUMBNAIL, 0, 0, Imgproc.INTER_AREA);
+		if (small.channels() == 1) {
+			small.copyTo(thumbnail);
+		} else {
+			Imgproc.cvtColor(small, thumbnail, Imgproc.COLOR_BGR2GRAY);
+		}
+		if (reference.empty() || !reference.size().equals(thumbnail.size())) {
+			lastChange = 1;
+			return true;
+		}
+
+		Core.absdiff(thumbnail, reference, difference);
+		Imgproc.threshold(difference, difference, pixelThreshold, 255, Imgproc.THRESH_BINARY);
+		lastChange = (double) Core.countNonZero(difference) / difference.total();
+		if (lastChange > changedFraction || unchangedFrames >= maxUnchanged) {
+			return true;
+		}
+		unchangedFrames++;
+		skippedTotal++;
+		return false;
+	}
+
+	/*
+	 * Copy of the thumbnail of the frame last passed to hasChanged(). The caller owns it.
+	 */
+	public synchronized Mat getThumbnail() {
+		return thumbnail.clone();
+	}
+
+	/*
+	 * Detection ran on the frame with this thumbnail and its results are the ones kept
+	 * for unchanged frames: it is the new reference. The thumbnail is copied.
+	 */
+	public synchronized void markDetected(Mat detected) {
+		detected.copyTo(reference);
+		unchangedFrames = 0;
+	}
+
+	/*
+	 * Fraction of the thumbnail that changed in the last frame tested.
+	 */
+	public synchronized double getLastChange() {
+		return lastChange;
+	}
+
+	/*
+	 * Frames found unchanged, on which detection could be skipped.
+	 */
+	public synchronized long getSkippedFrames() {
+		return skippedTotal;
+	}
+
+	/*
+	 * Forget the reference; the next frame is always detected.
+	 */
+	public synchronized void reset() {
+		reference.release();
+		unchangedFrames = 0;
+	}
+}
@@ -0,0 +1,316 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDMatch;
+import org.opencv.features2d.DescriptorMatcher;
+
+/*
+ * Recognition index over all reference objects.
+ *
+ * Instead of one Match (and one freshly built FLANN index) per object and frame,
+ * the descriptors of every reference SurfImage are trained into a single FLANN
+ * index once. Each frame then runs one knnMatch of the scene descriptors against
+ * that index, and every good match is voted back to the object it came from
+ * (DMatch.imgIdx). The per-frame cost depends on the number of scene features, not
+ * on how many objects are in the catalog.
+ *
+ * All objects must use the same FeatureBackend; the index is FLANN KD-trees for
+ * SURF and FLANN LSH for the binary descriptors.
+ *
+ * recognize() may be called from several threads. OpenCV matchers are not
+ * thread-safe (see FeatureEngine), so the queries against the shared index are
+ * serialized on it; objects must not be added while frames are being recognized.
+ */
+public class ObjectCatalog {
+	private final List<String> names = new ArrayList<>();
+	private final List<SurfImage> objects = new ArrayList<>();
+	private final List<Integer> matchThresholds = new ArrayList<>();
+	private final List<Double> detectionScales = new ArrayList<>();
+	// NaN until set: the ratio of the backend is used
+	private float distanceThreshold = Float.NaN;
+	private FeatureBackend backend;
+	private DescriptorMatcher matcher;
+	// bumped whenever recognition results may change, see RecognitionCache
+	private volatile int version = 0;
+
+	/*
+	 * Register a reference object. Its features must already be computed.
+	 */
+	public void add(String name, SurfImage object, int matchThreshold) {
+		add(name, object, matchThreshold, 1.0);
+	}
+
+	/*
+	 * Register a reference object that is detected on frames scaled by detectionScale
+	 * (e.g. 0.5 for an object that stays large in view) and located at full resolution
+	 * afterwards, see RegionRefiner.
+	 */
+	public void add(String name, SurfImage object, int matchThreshold, double detectionScale) {
+		if (detectionScale <= 0 || detectionScale > 1) {
+			throw new IllegalArgumentException("Detection scale must be in (0, 1]: " + detectionScale);
+		}
+		if (names.contains(name)) {
+			throw new IllegalArgumentException("Object " + name + " is already in the catalog");
+		}
+		if (backend != null && object.getBackend() != backend) {
+			throw new IllegalArgumentException("Object " + name + " uses " + object.getBackend()
+					+ " features but the catalog uses " + backend);
+		}
+		backend = object.getBackend();
+		names.add(name);
+		objects.add(object);
+		matchThresholds.add(matchThreshold);
+		detectionScales.add(detectionScale);
+		matcher = null;
+		version++;
+	}
+
+	/*
+	 * Build the index. Called lazily by recognize() when objects were added since the
+	 * last training.
+	 */
+	public synchronized void train() {
+		List<Mat> descriptors = new ArrayList<>();
+		for (SurfImage object : objects) {
+			descriptors.add(object.getObjectDescriptor());
+		}
+
+		DescriptorMatcher index = getBackend().createIndexMatcher();
+		index.add(descriptors);
+		index.train();
+		matcher = index;
+	}
+
+	/*
+	 * Match the frame against every object in the catalog with a single knnMatch.
+	 * Returns one Match per object, in the order the objects were added; the Match
+	 * carries the object's threshold, so areMatch() gives the verdict.
+	 */
+	public Map<String, Match> recognize(FrameFeatures frame) {
+		return recognize(frame, null);
+	}
+
+	/*
+	 * Same as recognize(frame), but only returns the objects detected at the frame's
+	 * scale.
+	 */
+	public Map<String, Match> recognizeAtScale(FrameFeatures frame) {
+		return recognize(frame, frame.getScale());
+	}
+
+	private Map<String, Match> recognize(FrameFeatures frame, Double scale) {
+		DescriptorMatcher index;
+		synchronized (this) {
+			if (matcher == null) {
+				train();
+			}
+			index = matcher;
+		}
+
+		float ratio = getDistanceThreshold();
+		int objectCount = objects.size();
+		Mat sceneDescriptor = frame.getDescriptor();
+		int sceneCount = sceneDescriptor != null ? sceneDescriptor.rows() : 0;
+
+		// a scene feature votes at most once; votes are gathered in one flat pass and
+		// then bucketed by object, so the arrays a Match keeps hold only its own votes
+		VoteBuffers buffers = VoteBuffers.current();
+		buffers.ensureCapacity(sceneCount, objectCount);
+		int[] voteObjects = buffers.objects;
+		int[] voteObjectIndices = buffers.objectIndices;
+		int[] voteSceneIndices = buffers.sceneIndices;
+		float[] voteDistances = buffers.distances;
+		int[] votes = buffers.votes;
+		Arrays.fill(votes, 0, objectCount, 0);
+		int voteCount = 0;
+
+		if (sceneCount > 0 && objectCount > 0) {
+			List<MatOfDMatch> matches = new ArrayList<>();
+			synchronized (index) {
+				index.knnMatch(sceneDescriptor, matches, 2);
+			}
+
+			// the two nearest neighbours as (queryIdx, trainIdx, imgIdx, distance) floats
+			float[] pair = buffers.pair;
+			for (MatOfDMatch matOfDMatch : matches) {
+				if (matOfDMatch.rows() < 2) {
+					continue;
+				}
+				matOfDMatch.get(0, 0, pair);
+
+				if (pair[3] <= pair[7] * ratio) {
+					// Match expects the object as query and the scene as train side
+					int object = (int) pair[2];
+					votes[object]++;
+					voteObjects[voteCount] = object;
+					voteObjectIndices[voteCount] = (int) pair[1];
+					voteSceneIndices[voteCount] = (int) pair[0];
+					voteDistances[voteCount] = pair[3];
+					voteCount++;
+				}
+			}
+			for (MatOfDMatch matOfDMatch : matches) {
+				matOfDMatch.release();
+			}
+		}
+
+		// counting sort by object: the votes of object i end up in [starts[i], starts[i + 1])
+		int[] starts = buffers.starts;
+		starts[0] = 0;
+		for (int i = 0; i < objectCount; i++) {
+			starts[i + 1] = starts[i] + votes[i];
+			votes[i] = starts[i];
+		}
+		int[] objectIndices = buffers.sortedObjectIndices;
+		int[] sceneIndices = buffers.sortedSceneIndices;
+		float[] distances = buffers.sortedDistances;
+		for (int v = 0; v < voteCount; v++) {
+			int slot = votes[voteObjects[v]]++;
+			objectIndices[slot] = voteObjectIndices[v];
+			sceneIndices[slot] = voteSceneIndices[v];
+			distances[slot] = voteDistances[v];
+		}
+
+		Map<String, Match> results = new LinkedHashMap<>();
+		for (int i = 0; i < objects.size(); i++) {
+			if (scale != null && detectionScales.get(i).doubleValue() != scale.doubleValue()) {
+				continue;
+			}
+			Match match = Match.copyOf(objectIndices, sceneIndices, distances, starts[i], starts[i + 1] - starts[i]);
+			match.setMatchThreshold(matchThresholds.get(i));
+			match.setDistanceThreshold(ratio);
+			results.put(names.get(i), match);
+		}
+		return results;
+	}
+
+	/*
+	 * Outline every object that was found in the frame onto the canvas.
+	 */
+	public void drawOutlines(Mat canvas, Map<String, Match> matches, FrameFeatures frame) {
+		for (int i = 0; i < objects.size(); i++) {
+			Match match = matches.get(names.get(i));
+			if (match != null && match.areMatch()) {
+				// tracked frames have no features, but their matches know the homography
+				Match.drawBorderOutline(canvas, match, objects.get(i), frame != null ? frame.asSurfImage() : null);
+			}
+		}
+	}
+
+	public SurfImage getObject(String name) {
+		int index = names.indexOf(name);
+		return index < 0 ? null : objects.get(index);
+	}
+
+	public int getMatchThreshold(String name) {
+		int index = names.indexOf(name);
+		if (index < 0) {
+			throw new IllegalArgumentException("Object " + name + " is not in the catalog");
+		}
+		return matchThresholds.get(index);
+	}
+
+	public double getDetectionScale(String name) {
+		int index = names.indexOf(name);
+		return index < 0 ? 1.0 : detectionScales.get(index);
+	}
+
+	/*
+	 * The distinct frame scales the objects are detected at, largest first.
+	 */
+	public List<Double> getDetectionScales() {
+		List<Double> scales = new ArrayList<>();
+		for (Double scale : detectionScales) {
+			if (!scales.contains(scale)) {
+				scales.add(scale);
+			}
+		}
+		scales.sort(Collections.reverseOrder());
+		return scales;
+	}
+
+	public List<String> getNames() {
+		return names;
+	}
+
+	public int size() {
+		return objects.size();
+	}
+
+	/*
+	 * Detector the catalog objects were extracted with; scenes must use the same.
+	 */
+	public FeatureBackend getBackend() {
+		return backend != null ? backend : FeatureBackend.getDefault();
+	}
+
+	public float getDistanceThreshold() {
+		return Float.isNaN(distanceThreshold) ? getBackend().getRatioThreshold() : distanceThreshold;
+	}
+
+	public void setDistanceThreshold(float distanceThreshold) {
+		this.distanceThreshold = distanceThreshold;
+		version++;
+	}
+
+	/*
+	 * Changes whenever objects or thresholds do, so results computed against an older
+	 * catalog can be told apart.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/*
+	 * Per-thread scratch arrays for the votes of a frame, grown as needed and never
+	 * shrunk, so gathering and bucketing the votes costs no allocation once they have
+	 * reached the working size. Only the first voteCount entries of the vote arrays and
+	 * the first objectCount vote counts are used. The Matches copy their slice into
+	 * pooled arrays of their own, see Match.copyOf.
+	 */
+	private static final class VoteBuffers {
+		private static final ThreadLocal<VoteBuffers> CURRENT = ThreadLocal.withInitial(VoteBuffers::new);
+
+		private final float[] pair = new float[8];
+		// votes in the order they were cast
+		private int[] objects = new int[0];
+		private int[] objectIndices = new int[0];
+		private int[] sceneIndices = new int[0];
+		private float[] distances = new float[0];
+		// the same votes bucketed by object
+		private int[] sortedObjectIndices = new int[0];
+		private int[] sortedSceneIndices = new int[0];
+		private float[] sortedDistances = new float[0];
+		// votes per object, then the write position of each bucket
+		private int[] votes = new int[0];
+		private int[] starts = new int[1];
+
+		static VoteBuffers current() {
+			return CURRENT.get();
+		}
+
+		void ensureCapacity(int sceneCount, int objectCount) {
+			if (objects.length < sceneCount) {
+				int capacity = Math.max(sceneCount, objects.length * 2);
+				objects = new int[capacity];
+				objectIndices = new int[capacity];
+				sceneIndices = new int[capacity];
+				distances = new float[capacity];
+				sortedObjectIndices = new int[capacity];
+				sortedSceneIndices = new int[capacity];
+				sortedDistances = new float[capacity];
+			}
+			if (votes.length < objectCount) {
+				votes = new int[objectCount];
+				starts = new int[objectCount + 1];
+			}
+		}
+	}
+}
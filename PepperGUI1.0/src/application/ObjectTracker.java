@@ -0,0 +1,336 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+/*
+ * Detect-then-track: once the catalog has found objects in a frame, follow them
+ * with pyramidal Lucas-Kanade optical flow instead of running feature detection
+ * and matching on every frame.
+ *
+ * A detection seeds one target per object found with the RANSAC inliers of the
+ * homography it verified (objects detected on a downscaled frame or taken from the
+ * RecognitionCache are seeded with corners picked inside their outline instead):
+ * the object-side points stay fixed, the scene-side points are flowed from frame
+ * to frame and the homography is refitted on the points that survive. Optical flow
+ * on a few dozen points costs a fraction of a millisecond against 80-150 ms for
+ * SURF. Full detection runs again when a target is lost (too few points survive or
+ * the refitted homography is degenerate) and every redetectEvery frames, so
+ * objects entering the view are still picked up.
+ *
+ * seed() and track() may be called from different pipeline stages. The tracker
+ * owns its points and homographies and releases them itself; jobs get copies that
+ * go with their frame.
+ */
+public class ObjectTracker {
+	// fewer surviving points than this and the target is lost
+	private static final int MIN_POINTS = 8;
+	// ... or fewer than this fraction of the points it was seeded with
+	private static final double MIN_SURVIVING = 0.5;
+	private static final Size WINDOW = new Size(21, 21);
+	private static final int PYRAMID_LEVELS = 3;
+	private static final double RANSAC_THRESHOLD = 3;
+	// corners picked inside an outline when there are no inliers to seed with
+	private static final int MAX_CORNERS = 100;
+
+	private final ObjectCatalog catalog;
+	private final int redetectEvery;
+	private final Map<String, Target> targets = new LinkedHashMap<>();
+	private Mat lastGray = new Mat();
+	private Mat gray = new Mat();
+	private long lastSequence = -1;
+	private int framesTracked = 0;
+	private long trackedTotal = 0;
+	private long lostTotal = 0;
+
+	public ObjectTracker(ObjectCatalog catalog, int redetectEvery) {
+		this.catalog = catalog;
+		this.redetectEvery = redetectEvery;
+	}
+
+	/*
+	 * Lock on to every object the job found. Frames older than the one the targets
+	 * already come from are ignored.
+	 */
+	public synchronized void seed(FrameJob job) {
+		if (job.getSequence() < lastSequence) {
+			return;
+		}
+		clearTargets();
+		framesTracked = 0;
+		toGray(job.getFrame(), gray);
+
+		float[] sceneCoordinates = null;
+		for (String name : catalog.getNames()) {
+			Match match = job.getMatch(name);
+			if (match == null || !match.areMatch()) {
+				continue;
+			}
+			SurfImage object = catalog.getObject(name);
+			Target target;
+			if (!match.isTracked() && catalog.getDetectionScale(name) == 1.0 && job.getFeatures() != null) {
+				if (sceneCoordinates == null) {
+					sceneCoordinates = job.getFeatures().asSurfImage().getKeyPointCoordinates();
+				}
+				// the homography verified by detection and its inliers, not a fit of its own
+				Mat homography = Match.getHomography(match, object, job.getFeatures().asSurfImage());
+				target = Target.fromMatch(match, homography, object, sceneCoordinates);
+			} else if (match.getKnownHomography() != null) {
+				// located by refinement or looked up in the RecognitionCache: no full frame matches
+				target = Target.fromHomography(match.getKnownHomography(), object, gray);
+			} else {
+				continue;
+			}
+			if (target != null) {
+				targets.put(name, target);
+			}
+		}
+
+		if (!targets.isEmpty()) {
+			Mat swap = lastGray;
+			lastGray = gray;
+			gray = swap;
+			lastSequence = job.getSequence();
+		}
+	}
+
+	/*
+	 * Follow the targets into this frame and put a tracked Match for each of them into
+	 * the job. Returns false if the frame needs full detection: nothing is locked, a
+	 * target was lost, the frame size changed or it is time to look for new objects.
+	 */
+	public synchronized boolean track(FrameJob job) {
+		if (targets.isEmpty() || framesTracked >= redetectEvery || job.getSequence() <= lastSequence) {
+			return false;
+		}
+
+		if (!job.getFrame().size().equals(lastGray.size())) {
+			// new resolution or source: the points no longer fit, detection re-seeds
+			clearTargets();
+			lastGray.release();
+			lostTotal++;
+			return false;
+		}
+		toGray(job.getFrame(), gray);
+		for (Target target : targets.values()) {
+			if (!target.follow(lastGray, gray)) {
+				// a lost target invalidates the lock; detection re-seeds all of them
+				clearTargets();
+				lostTotal++;
+				return false;
+			}
+		}
+
+		for (Map.Entry<String, Target> entry : targets.entrySet()) {
+			job.putMatch(entry.getKey(), Match.tracked(MatArena.track(entry.getValue().homography.clone())));
+		}
+		Mat swap = lastGray;
+		lastGray = gray;
+		gray = swap;
+		lastSequence = job.getSequence();
+		framesTracked++;
+		trackedTotal++;
+		return true;
+	}
+
+	public synchronized boolean isLocked() {
+		return !targets.isEmpty();
+	}
+
+	public synchronized void reset() {
+		clearTargets();
+		framesTracked = 0;
+		lastSequence = -1;
+	}
+
+	/*
+	 * Frames that were tracked instead of detected.
+	 */
+	public synchronized long getTrackedFrames() {
+		return trackedTotal;
+	}
+
+	/*
+	 * Number of times tracking lost an object.
+	 */
+	public synchronized long getLostCount() {
+		return lostTotal;
+	}
+
+	private void clearTargets() {
+		for (Target target : targets.values()) {
+			target.release();
+		}
+		targets.clear();
+	}
+
+	private static void toGray(Mat frame, Mat gray) {
+		if (frame.channels() == 1) {
+			frame.copyTo(gray);
+		} else {
+			Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+		}
+	}
+
+	/*
+	 * One object being followed: its points on the reference image and where they
+	 * are in the last frame.
+	 */
+	private static final class Target {
+		private MatOfPoint2f objectPoints;
+		private MatOfPoint2f scenePoints;
+		private Mat homography;
+		private final int seededPoints;
+		private final int width;
+		private final int height;
+
+		private Target(MatOfPoint2f objectPoints, MatOfPoint2f scenePoints, Mat homography, SurfImage object) {
+			this.objectPoints = objectPoints;
+			this.scenePoints = scenePoints;
+			this.homography = homography;
+			this.seededPoints = (int) scenePoints.total();
+			this.width = object.getWidth();
+			this.height = object.getHeight();
+		}
+
+		/*
+		 * Target on the RANSAC inliers of the verified homography of the match, or null if
+		 * there are too few. The homography is copied, not taken over.
+		 */
+		static Target fromMatch(Match match, Mat homography, SurfImage object, float[] sceneCoordinates) {
+			int count = match.getInlierCount();
+			if (homography.empty() || count < MIN_POINTS) {
+				return null;
+			}
+			float[] objectCoordinates = object.getKeyPointCoordinates();
+			float[] objectData = new float[count * 2];
+			float[] sceneData = new float[count * 2];
+			int[] inliers = match.getInlierIndices();
+			int[] queryIndices = match.getQueryIndices();
+			int[] trainIndices = match.getTrainIndices();
+			for (int i = 0; i < count; i++) {
+				int query = queryIndices[inliers[i]];
+				int train = trainIndices[inliers[i]];
+				objectData[i * 2] = objectCoordinates[query * 2];
+				objectData[i * 2 + 1] = objectCoordinates[query * 2 + 1];
+				sceneData[i * 2] = sceneCoordinates[train * 2];
+				sceneData[i * 2 + 1] = sceneCoordinates[train * 2 + 1];
+			}
+			return new Target(points(objectData, count), points(sceneData, count), homography.clone(), object);
+		}
+
+		private static MatOfPoint2f points(float[] data, int count) {
+			MatOfPoint2f points = new MatOfPoint2f();
+			points.alloc(count);
+			points.put(0, 0, data);
+			return points;
+		}
+
+		/*
+		 * Target on corners picked inside the projected outline of the object, or null if
+		 * the outline holds too few of them. The homography is copied, not taken over.
+		 */
+		static Target fromHomography(Mat homography, SurfImage object, Mat gray) {
+			if (homography.empty()) {
+				return null;
+			}
+			MatOfPoint2f corners = new MatOfPoint2f(new Point(0, 0), new Point(object.getWidth(), 0),
+					new Point(object.getWidth(), object.getHeight()), new Point(0, object.getHeight()));
+			MatOfPoint2f outline = new MatOfPoint2f();
+			Core.perspectiveTransform(corners, outline, homography);
+			MatOfPoint polygon = new MatOfPoint();
+			outline.convertTo(polygon, CvType.CV_32S);
+
+			Mat mask = Mat.zeros(gray.size(), CvType.CV_8UC1);
+			Imgproc.fillConvexPoly(mask, polygon, new Scalar(255));
+			MatOfPoint picked = new MatOfPoint();
+			Imgproc.goodFeaturesToTrack(gray, picked, MAX_CORNERS, 0.01, 7, mask, 3, false, 0.04);
+			corners.release();
+			outline.release();
+			polygon.release();
+			mask.release();
+			if (picked.total() < MIN_POINTS) {
+				picked.release();
+				return null;
+			}
+
+			MatOfPoint2f scenePoints = new MatOfPoint2f();
+			picked.convertTo(scenePoints, CvType.CV_32F);
+			picked.release();
+			MatOfPoint2f objectPoints = new MatOfPoint2f();
+			Mat inverse = homography.inv();
+			Core.perspectiveTransform(scenePoints, objectPoints, inverse);
+			inverse.release();
+			return new Target(objectPoints, scenePoints, homography.clone(), object);
+		}
+
+		/*
+		 * Flow the scene points from the previous frame into the next one and refit the
+		 * homography. Returns false if the target is lost, including when the refitted
+		 * homography fails the same plausibility check as a detection.
+		 */
+		boolean follow(Mat previous, Mat next) {
+			MatOfPoint2f nextPoints = new MatOfPoint2f();
+			MatOfByte status = new MatOfByte();
+			MatOfFloat error = new MatOfFloat();
+			Video.calcOpticalFlowPyrLK(previous, next, scenePoints, nextPoints, status, error, WINDOW, PYRAMID_LEVELS);
+
+			byte[] found = status.toArray();
+			Point[] from = objectPoints.toArray();
+			Point[] to = nextPoints.toArray();
+			nextPoints.release();
+			status.release();
+			error.release();
+			List<Point> keptObject = new ArrayList<>();
+			List<Point> keptScene = new ArrayList<>();
+			for (int i = 0; i < found.length; i++) {
+				if (found[i] != 0) {
+					keptObject.add(from[i]);
+					keptScene.add(to[i]);
+				}
+			}
+			if (keptScene.size() < MIN_POINTS || keptScene.size() < seededPoints * MIN_SURVIVING) {
+				return false;
+			}
+
+			MatOfPoint2f survivingObject = new MatOfPoint2f();
+			survivingObject.fromList(keptObject);
+			MatOfPoint2f survivingScene = new MatOfPoint2f();
+			survivingScene.fromList(keptScene);
+			Mat refitted = Calib3d.findHomography(survivingObject, survivingScene, Calib3d.RANSAC, RANSAC_THRESHOLD);
+			if (Match.isDegenerate(refitted, width, height)) {
+				refitted.release();
+				survivingObject.release();
+				survivingScene.release();
+				return false;
+			}
+			release();
+			objectPoints = survivingObject;
+			scenePoints = survivingScene;
+			homography = refitted;
+			return true;
+		}
+
+		void release() {
+			objectPoints.release();
+			scenePoints.release();
+			homography.release();
+		}
+	}
+}
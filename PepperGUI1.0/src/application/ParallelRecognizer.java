@@ -0,0 +1,218 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.DMatch;
+import org.opencv.core.Mat;
+
+/*
+ * Per-object recognition fanned out over a work-stealing pool.
+ *
+ * Once the scene features are extracted, every reference object is matched
+ * (knnMatch and ratio test) and verified (RANSAC homography) on its own task, so a
+ * frame with several objects uses several cores instead of one. Each worker thread
+ * has its own FeatureEngine, which it closes when the pool retires it.
+ *
+ * Results are merged in catalog order, whatever order the tasks finish in. An
+ * object whose task has not finished by the frame deadline is reported as not
+ * found for that frame; its task is cancelled if it has not started yet, a native
+ * call already running finishes in the background.
+ *
+ * Each task works in the frame's MatArena and holds it until it is done, so a
+ * task finishing after the deadline does not lose its Mats under it and the ones
+ * it creates are released with the frame all the same. It holds a lease on the
+ * frame buffer as well, so the ring does not hand the buffer out again while a
+ * late task is still refining on it.
+ *
+ * Unlike ObjectCatalog.recognize, which runs one query against a shared index,
+ * every object here is matched against the scene on its own, so its ratio test
+ * only compares neighbours on that object.
+ */
+public class ParallelRecognizer implements AutoCloseable {
+	private final ObjectCatalog catalog;
+	private final long deadline;
+	private final ForkJoinPool pool;
+	private final AtomicLong missedDeadlines = new AtomicLong();
+	private volatile PipelineMetrics metrics;
+
+	/*
+	 * deadline is in milliseconds from the start of recognize(); parallelism is the
+	 * number of worker threads.
+	 */
+	public ParallelRecognizer(ObjectCatalog catalog, int parallelism, long deadline) {
+		this.catalog = catalog;
+		this.deadline = deadline;
+		this.pool = new ForkJoinPool(parallelism, RecognitionThread::new, null, false);
+	}
+
+	/*
+	 * Record the time each task spends locating its object ("homography", or "refine"
+	 * for scaled features) into these metrics; null stops recording.
+	 */
+	public void setMetrics(PipelineMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/*
+	 * Match and verify every object detected at the scale of the features. Returns one
+	 * Match per object, in catalog order; verified matches carry their full resolution
+	 * homography, refined on the frame when the features are from a scaled copy.
+	 * fullFrame lives in the buffer of the lease, if not null.
+	 */
+	public Map<String, Match> recognize(FrameFeatures frame, Mat fullFrame, FrameRing.Frame lease) {
+		long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadline);
+		MatArena arena = MatArena.current();
+		PipelineMetrics taskMetrics = metrics;
+
+		List<String> names = new ArrayList<>();
+		List<ForkJoinTask<Match>> tasks = new ArrayList<>();
+		List<AtomicBoolean> started = new ArrayList<>();
+		for (String name : catalog.getNames()) {
+			if (catalog.getDetectionScale(name) != frame.getScale()) {
+				continue;
+			}
+			SurfImage object = catalog.getObject(name);
+			int threshold = catalog.getMatchThreshold(name);
+			MatArena held = arena != null ? arena.retain() : null;
+			FrameRing.Frame heldFrame = lease != null ? lease.retain() : null;
+			AtomicBoolean taken = new AtomicBoolean();
+			names.add(name);
+			started.add(taken);
+			tasks.add(pool.submit(() -> {
+				if (!taken.compareAndSet(false, true)) {
+					// given up on before it started; the caller has closed the arena
+					return null;
+				}
+				MatArena previous = MatArena.setCurrent(held);
+				try {
+					return verify(object, frame, fullFrame, threshold, taskMetrics);
+				} finally {
+					MatArena.setCurrent(previous);
+					if (held != null) {
+						held.close();
+					}
+					if (heldFrame != null) {
+						heldFrame.release();
+					}
+				}
+			}));
+		}
+
+		Map<String, Match> results = new LinkedHashMap<>();
+		for (int i = 0; i < tasks.size(); i++) {
+			Match match = await(tasks.get(i), due);
+			if (match == null) {
+				if (started.get(i).compareAndSet(false, true)) {
+					// the task will not run any more, so its holds are given back here
+					if (arena != null) {
+						arena.close();
+					}
+					if (lease != null) {
+						lease.release();
+					}
+				}
+				match = notFound(catalog.getMatchThreshold(names.get(i)));
+			}
+			results.put(names.get(i), match);
+		}
+		return results;
+	}
+
+	/*
+	 * Objects given up on because their task missed the frame deadline.
+	 */
+	public long getMissedDeadlines() {
+		return missedDeadlines.get();
+	}
+
+	@Override
+	public void close() {
+		pool.shutdownNow();
+	}
+
+	/*
+	 * Match one object against the frame features and, if found, locate it at full
+	 * resolution. Runs on the calling thread.
+	 */
+	static Match verify(SurfImage object, FrameFeatures frame, Mat fullFrame, int threshold) {
+		return verify(object, frame, fullFrame, threshold, null);
+	}
+
+	/*
+	 * Same, recording the time spent locating the object into the metrics if not null.
+	 */
+	static Match verify(SurfImage object, FrameFeatures frame, Mat fullFrame, int threshold, PipelineMetrics metrics) {
+		Match match = new Match(object, frame);
+		match.setMatchThreshold(threshold);
+		if (!match.areMatch()) {
+			return match;
+		}
+		// locate it now, in parallel, rather than in the overlay stage
+		long start = System.nanoTime();
+		String stage;
+		if (frame.getScale() == 1.0) {
+			Match.getHomography(match, object, frame.asSurfImage());
+			stage = "homography";
+		} else {
+			match.setKnownHomography(RegionRefiner.refine(match, object, frame, fullFrame));
+			stage = "refine";
+		}
+		if (metrics != null) {
+			metrics.record(stage, System.nanoTime() - start);
+		}
+		return match;
+	}
+
+	/*
+	 * Result of the task, or null if it failed or missed the deadline.
+	 */
+	private Match await(ForkJoinTask<Match> task, long due) {
+		try {
+			return task.get(Math.max(0, due - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			task.cancel(true);
+			missedDeadlines.incrementAndGet();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.err.println("Exception during the object recognition: " + e.getCause());
+		}
+		return null;
+	}
+
+	private static Match notFound(int threshold) {
+		Match match = new Match(new LinkedList<DMatch>());
+		match.setMatchThreshold(threshold);
+		match.setKnownHomography(MatArena.track(new Mat()));
+		return match;
+	}
+
+	/*
+	 * Pool worker that releases its detector and matcher when it is retired.
+	 */
+	private static final class RecognitionThread extends ForkJoinWorkerThread {
+		RecognitionThread(ForkJoinPool pool) {
+			super(pool);
+			setName("recognition-" + getPoolIndex());
+			setDaemon(true);
+		}
+
+		@Override
+		protected void onTermination(Throwable exception) {
+			FeatureEngine.closeCurrent();
+			super.onTermination(exception);
+		}
+	}
+}
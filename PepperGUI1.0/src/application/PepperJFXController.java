@@ -0,0 +1,253 @@
+package application;
+
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import Utils.FrameDisplay;
+import javafx.event.ActionEvent;
+import javafx.fxml.FXML;
+import javafx.scene.control.Button;
+import javafx.scene.image.ImageView;
+
+/**
+ * Common part of the GUI controllers: the start/stop button, the detection
+ * pipeline and the book/card labels. Subclasses only choose where the frames
+ * come from and what to do with the robot buttons.
+ */
+public abstract class PepperJFXController {
+	// the FXML buttons
+	@FXML
+	protected Button startBtn;
+	@FXML
+	protected Button standBtn;
+	@FXML
+	protected Button crouchBtn;
+
+	// the FXML image view
+	@FXML
+	protected ImageView currentFrame;
+
+	// the staged capture/detect/render pipeline
+	private DetectionPipeline pipeline;
+	// slows capture and detection down to what the pipeline sustains
+	private FrameRateGovernor governor;
+	// reusable frame buffers: enough for every stage to hold one frame and have one waiting
+	private FrameRing frameRing = new FrameRing(12);
+	// shows the latest frame on every JavaFX pulse
+	private FrameDisplay frameDisplay;
+	// a flag to change the startBtn behavior
+	private boolean cameraActive = false;
+
+	// cached features of the reference objects
+	private DescriptorStore descriptorStore = new DescriptorStore("cache/descriptors");
+	// recognition index over all the reference objects
+	protected ObjectCatalog objectCatalog = new ObjectCatalog();
+
+	// SURF object to detect
+	protected SurfImage bookSurfImage = new SurfImage("images/eatthatfrog.jpg");
+	protected SurfImage cardSurfImage = new SurfImage("images/card.jpg");
+	protected int bookMatchThreshold = 50;
+	protected int cardMatchThreshold = 50;
+	// detect on the frame scaled by this much, then locate at full resolution
+	protected double bookDetectionScale = 1.0;
+	protected double cardDetectionScale = 1.0;
+	protected boolean showMatches = false;
+	protected boolean showOutline = true;
+	// full detection at least every that many frames while tracking objects; 0 never tracks
+	protected int redetectEvery = 15;
+	// objects not matched and located within this many ms of the match stage starting are skipped for the frame
+	protected long recognitionDeadline = 200;
+	// draw the per-stage latencies on the frame
+	protected boolean showMetrics = false;
+	// skip detection while the scene does not change and keep showing the last results
+	protected boolean gateOnMotion = true;
+	// results of recently seen frames, so a view seen again is not detected again; null caches nothing
+	protected RecognitionCache recognitionCache = new RecognitionCache();
+	// end-to-end latency in ms the capture rate and detection frequency are adjusted to hold; 0 never adjusts
+	protected long latencyBudget = 200;
+
+	// stage latencies and counters, also on JMX and printed every few seconds
+	protected PipelineMetrics metrics = new PipelineMetrics();
+
+	/**
+	 * @return the {@link FrameSource} the camera button starts and stops
+	 */
+	protected abstract FrameSource createFrameSource();
+
+	/**
+	 * Say what was found; does nothing unless there is someone to say it
+	 *
+	 * @param sentence
+	 *            the sentence to say
+	 */
+	protected void announce(String sentence)
+	{
+	}
+
+	/**
+	 * The action triggered by pushing the startBtn on the GUI
+	 *
+	 * @param event
+	 *            the push startBtn event
+	 */
+	@FXML
+	protected void startCamera(ActionEvent event)
+	{
+		if (!this.cameraActive)
+		{
+			// index the reference objects once; every frame is matched against all of them
+			if (objectCatalog.size() == 0)
+			{
+				bookSurfImage.getSurfFeatures(descriptorStore);
+				cardSurfImage.getSurfFeatures(descriptorStore);
+				// the thresholds are tuned for SURF; binary detectors find fewer keypoints
+				FeatureBackend backend = bookSurfImage.getBackend();
+				objectCatalog.add("book", bookSurfImage, backend.scaleThreshold(bookMatchThreshold), bookDetectionScale);
+				objectCatalog.add("card", cardSurfImage, backend.scaleThreshold(cardMatchThreshold), cardDetectionScale);
+			}
+
+			if (this.frameDisplay == null)
+			{
+				this.frameDisplay = new FrameDisplay(currentFrame);
+				this.frameDisplay.setPresentTimer(nanos -> metrics.record("display", nanos));
+			}
+
+			// capture, SURF, matching, overlay and display each run on their own
+			// thread; a stage that falls behind drops stale frames instead of queuing them
+			this.pipeline = new DetectionPipeline(createFrameSource(), objectCatalog, frameRing, 33);
+			this.pipeline.setAnnotator(this::drawOverlay);
+			this.pipeline.setSink(frameDisplay::submit);
+			this.pipeline.setMetrics(metrics);
+			this.pipeline.setTracking(redetectEvery);
+			this.pipeline.setMotionGate(gateOnMotion ? new MotionGate() : null);
+			this.pipeline.setRecognitionCache(recognitionCache);
+			// one core per object; on a single core the shared catalog index is cheaper
+			int cores = Runtime.getRuntime().availableProcessors();
+			this.pipeline.setParallelRecognition(cores > 1 ? Math.min(objectCatalog.size(), cores) : 0, recognitionDeadline);
+
+			// is the video stream available?
+			if (this.pipeline.start())
+			{
+				this.cameraActive = true;
+				this.frameDisplay.start();
+				this.metrics.register(getClass().getSimpleName());
+				this.metrics.startReporting(5);
+				if (latencyBudget > 0)
+				{
+					this.governor = new FrameRateGovernor(this.pipeline, latencyBudget);
+					this.governor.start(2);
+				}
+
+				// update the startBtn content
+				this.startBtn.setText("Stop Camera");
+			}
+			else
+			{
+				// log the error
+				System.err.println("Impossible to open the camera connection...");
+			}
+		}
+		else
+		{
+			// the camera is not active at this point
+			this.cameraActive = false;
+			// update again the startBtn content
+			this.startBtn.setText("Start Camera");
+
+			// stop the pipeline
+			this.stopAcquisition();
+		}
+	}
+
+	/**
+	 * Pipeline stage: outline and label what was found and announce it without waiting
+	 */
+	private FrameJob drawOverlay(FrameJob job)
+	{
+		Mat frame = job.getOutput();
+		boolean foundBook = job.isFound("book");
+		boolean foundCard = job.isFound("card");
+
+		if (foundBook && showMatches && job.getFeatures() != null)
+		{
+			// the match image is shown as it is
+			job.setOutput(Match.createMatchImage(job.getMatch("book"), bookSurfImage, job.getFeatures().asSurfImage()));
+			return job;
+		}
+
+		// every detection is done at this point, so drawing on the frame is safe
+		if (showOutline)
+		{
+			pipeline.drawOutlines(job);
+		}
+
+		if (foundBook && foundCard)
+		{
+			Imgproc.putText(frame, "Book and Card Found.", new org.opencv.core.Point(30,30), org.opencv.core.Core.FONT_HERSHEY_TRIPLEX, 1, new org.opencv.core.Scalar(-200,-200,250));
+			announce("\\vol=100\\I see a book and a card.");
+		}
+		else if (foundBook && showOutline)
+		{
+			Imgproc.putText(frame, "Book Found.", new org.opencv.core.Point(30,30), org.opencv.core.Core.FONT_HERSHEY_TRIPLEX, 1, new org.opencv.core.Scalar(-200,-200,250));
+			announce("\\vol=100\\I found a book");
+		}
+		else if (foundCard && showOutline)
+		{
+			Imgproc.putText(frame, "Card Found.", new org.opencv.core.Point(50,50), org.opencv.core.Core.FONT_HERSHEY_TRIPLEX, 1, new org.opencv.core.Scalar(250,250,250));
+			announce("\\vol=100\\Hey! I found a card!");
+		}
+
+		if (showMetrics)
+		{
+			int y = frame.rows() - 10;
+			List<String> lines = metrics.getOverlayLines();
+			for (int i = lines.size() - 1; i >= 0; i--, y -= 14)
+			{
+				Imgproc.putText(frame, lines.get(i), new org.opencv.core.Point(10,y), org.opencv.core.Core.FONT_HERSHEY_PLAIN, 0.9, new org.opencv.core.Scalar(0,255,0));
+			}
+		}
+		return job;
+	}
+
+	/**
+	 * Stop the acquisition from the camera and release all the resources
+	 */
+	protected void stopAcquisition()
+	{
+		if (this.governor != null)
+		{
+			this.governor.close();
+			this.governor = null;
+		}
+
+		if (this.pipeline != null)
+		{
+			// stop every pipeline stage and close the frame source
+			this.pipeline.stop();
+		}
+
+		if (this.frameDisplay != null)
+		{
+			this.frameDisplay.stop();
+		}
+
+		this.metrics.stopReporting();
+	}
+
+	@FXML
+	protected abstract void robotStandUp(ActionEvent event);
+
+	@FXML
+	protected abstract void robotCrouch(ActionEvent event);
+
+	/**
+	 * On application close, stop the acquisition from the camera
+	 */
+	protected void setClosed()
+	{
+		this.stopAcquisition();
+		this.metrics.unregister();
+	}
+}
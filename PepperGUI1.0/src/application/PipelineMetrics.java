@@ -0,0 +1,457 @@
+package application;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Runtime instrumentation of the frame loop: a latency histogram per stage plus
+ * frame, drop, queue and buffer counters.
+ *
+ * The FramePipeline records capture and every stage by name, the detection pipeline
+ * adds the homography and the display adds the time spent on the JavaFX thread;
+ * "total" is the age of a frame when it leaves the last stage. The numbers can be
+ * read over JMX, printed periodically on stdout or drawn on the frame itself, to see
+ * which stage blows the 33 ms budget.
+ *
+ * The percentiles describe the current latency, not the whole session: once the
+ * reporting has started they cover the last reporting period, whose histograms are
+ * swapped with fresh ones at the end of every period (see rollWindow).
+ */
+public class PipelineMetrics implements PipelineMetricsMXBean {
+	// the stages of the detection loop, in the order they are reported
+	public static final String[] STAGES = { "capture", "extract", "match", "homography", "overlay", "convert",
+			"display", "total" };
+
+	// recording now, and the last complete window once rollWindow() has run; the
+	// stage threads look their histogram up without taking a lock
+	private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+	private final Map<String, LatencyHistogram> windows = new ConcurrentHashMap<>();
+	private final List<String> stages = new CopyOnWriteArrayList<>();
+	private final AtomicLong framesCompleted = new AtomicLong();
+	private final Map<String, List<LatencyHistogram>> mirrors = new ConcurrentHashMap<>();
+	private volatile FramePipeline pipeline;
+	private volatile FrameRing ring;
+	private volatile FrameSource source;
+	private volatile DetectionPipeline detection;
+	private volatile FrameRateGovernor governor;
+	private volatile RecognitionCache cache;
+	private ScheduledExecutorService reporter;
+	private ObjectName objectName;
+	private long lastCompleted = 0;
+	private long lastReport = System.nanoTime();
+	private volatile double framesPerSecond = 0;
+
+	public PipelineMetrics() {
+		for (String stage : STAGES) {
+			histogram(stage);
+		}
+	}
+
+	/*
+	 * Read the drops and queue depths of this pipeline and the leases of this ring.
+	 */
+	public void attach(FramePipeline pipeline, FrameRing ring) {
+		this.pipeline = pipeline;
+		this.ring = ring;
+	}
+
+	/*
+	 * Report the capture rate of this source.
+	 */
+	public void attach(FrameSource source) {
+		this.source = source;
+	}
+
+	/*
+	 * Report the frames this detection pipeline tracked or skipped and the objects its
+	 * parallel recognizer gave up on.
+	 */
+	public void attach(DetectionPipeline detection) {
+		this.detection = detection;
+	}
+
+	/*
+	 * Report the settings this governor has put in force.
+	 */
+	public void attach(FrameRateGovernor governor) {
+		this.governor = governor;
+	}
+
+	public synchronized void detach(FrameRateGovernor governor) {
+		if (this.governor == governor) {
+			this.governor = null;
+		}
+	}
+
+	/*
+	 * Report the hits and evictions of this recognition cache.
+	 */
+	public void attach(RecognitionCache cache) {
+		this.cache = cache;
+	}
+
+	public void record(String stage, long nanos) {
+		histogram(stage).record(nanos);
+		if ("total".equals(stage)) {
+			framesCompleted.incrementAndGet();
+		}
+		List<LatencyHistogram> targets = mirrors.get(stage);
+		if (targets != null) {
+			for (LatencyHistogram target : targets) {
+				target.record(nanos);
+			}
+		}
+	}
+
+	/*
+	 * Also record a stage into another histogram, e.g. a window its owner resets on its
+	 * own schedule without disturbing these metrics.
+	 */
+	public void mirror(String stage, LatencyHistogram target) {
+		mirrors.computeIfAbsent(stage, key -> new CopyOnWriteArrayList<>()).add(target);
+	}
+
+	public void unmirror(String stage, LatencyHistogram target) {
+		List<LatencyHistogram> targets = mirrors.get(stage);
+		if (targets != null) {
+			targets.remove(target);
+		}
+	}
+
+	/*
+	 * The histogram a stage is being recorded into.
+	 */
+	public LatencyHistogram histogram(String stage) {
+		LatencyHistogram histogram = histograms.get(stage);
+		if (histogram == null) {
+			histogram = histograms.computeIfAbsent(stage, key -> {
+				stages.add(key);
+				return new LatencyHistogram();
+			});
+		}
+		return histogram;
+	}
+
+	/*
+	 * The histogram a stage is reported from: the last complete window, or the one
+	 * being recorded if no window has completed yet.
+	 */
+	public LatencyHistogram reported(String stage) {
+		LatencyHistogram window = windows.get(stage);
+		return window != null ? window : histogram(stage);
+	}
+
+	/*
+	 * End the current window: its histograms become the reported ones and recording
+	 * goes on into the histograms of the window before, emptied. A value recorded
+	 * during the swap may land in either window.
+	 */
+	public synchronized void rollWindow() {
+		for (String stage : stages) {
+			LatencyHistogram recycled = windows.get(stage);
+			if (recycled == null) {
+				recycled = new LatencyHistogram();
+			} else {
+				recycled.reset();
+			}
+			windows.put(stage, histograms.put(stage, recycled));
+		}
+	}
+
+	/*
+	 * The stages recorded so far, those of STAGES first.
+	 */
+	public List<String> getStages() {
+		return new ArrayList<>(stages);
+	}
+
+	@Override
+	public Map<String, Double> getP50Millis() {
+		return perStage(histogram -> histogram.getPercentile(0.50) / 1e6);
+	}
+
+	@Override
+	public Map<String, Double> getP99Millis() {
+		return perStage(histogram -> histogram.getPercentile(0.99) / 1e6);
+	}
+
+	@Override
+	public Map<String, Double> getMaxMillis() {
+		return perStage(histogram -> histogram.getMax() / 1e6);
+	}
+
+	@Override
+	public Map<String, Integer> getQueueDepths() {
+		FramePipeline current = pipeline;
+		return current != null ? current.getQueueDepths() : Collections.<String, Integer> emptyMap();
+	}
+
+	@Override
+	public long getFramesCompleted() {
+		return framesCompleted.get();
+	}
+
+	@Override
+	public long getDroppedFrames() {
+		FramePipeline current = pipeline;
+		return current != null ? current.getDroppedFrames() : 0;
+	}
+
+	@Override
+	public double getFramesPerSecond() {
+		return framesPerSecond;
+	}
+
+	@Override
+	public double getCaptureRate() {
+		FrameSource current = source;
+		return current != null ? current.getCaptureRate() : 0;
+	}
+
+	@Override
+	public int getLeasedFrames() {
+		FrameRing current = ring;
+		return current != null ? current.getCapacity() - current.getAvailable() : 0;
+	}
+
+	@Override
+	public int getLiveFeatureEngines() {
+		return FeatureEngine.liveEngines();
+	}
+
+	@Override
+	public long getLiveMats() {
+		return MatArena.getLiveMats();
+	}
+
+	@Override
+	public int getOpenArenas() {
+		return MatArena.getOpenArenas();
+	}
+
+	@Override
+	public long getTrackedFrames() {
+		ObjectTracker tracker = detection != null ? detection.getTracker() : null;
+		return tracker != null ? tracker.getTrackedFrames() : 0;
+	}
+
+	@Override
+	public long getTrackingLosses() {
+		ObjectTracker tracker = detection != null ? detection.getTracker() : null;
+		return tracker != null ? tracker.getLostCount() : 0;
+	}
+
+	@Override
+	public long getUnchangedFrames() {
+		MotionGate gate = detection != null ? detection.getMotionGate() : null;
+		return gate != null ? gate.getSkippedFrames() : 0;
+	}
+
+	@Override
+	public long getMissedDeadlines() {
+		ParallelRecognizer recognizer = detection != null ? detection.getRecognizer() : null;
+		return recognizer != null ? recognizer.getMissedDeadlines() : 0;
+	}
+
+	@Override
+	public String getGovernorSettings() {
+		FrameRateGovernor current = governor;
+		return current != null ? current.describe() : "";
+	}
+
+	@Override
+	public double getCacheHitRate() {
+		RecognitionCache current = cache;
+		return current != null ? current.getHitRate() : 0;
+	}
+
+	@Override
+	public long getCacheHits() {
+		RecognitionCache current = cache;
+		return current != null ? current.getHits() : 0;
+	}
+
+	@Override
+	public long getCacheEvictions() {
+		RecognitionCache current = cache;
+		return current != null ? current.getEvictions() : 0;
+	}
+
+	@Override
+	public int getCacheSize() {
+		RecognitionCache current = cache;
+		return current != null ? current.size() : 0;
+	}
+
+	/*
+	 * One line with p50/p99 per stage and the counters, e.g.
+	 * "7.9 fps (captured 15.0) | extract 96.1/141.0 ms | ... | dropped 12, queues [0, 1, 0, 0, 0], leased 5".
+	 */
+	@Override
+	public String getSummary() {
+		StringBuilder line = new StringBuilder();
+		line.append(String.format(Locale.ROOT, "%.1f fps", framesPerSecond));
+		double captureRate = getCaptureRate();
+		if (captureRate > 0) {
+			line.append(String.format(Locale.ROOT, " (captured %.1f)", captureRate));
+		}
+		for (String stage : getStages()) {
+			LatencyHistogram histogram = reported(stage);
+			if (histogram.getCount() > 0) {
+				line.append(String.format(Locale.ROOT, " | %s %.1f/%.1f ms", stage,
+						histogram.getPercentile(0.50) / 1e6, histogram.getPercentile(0.99) / 1e6));
+			}
+		}
+		line.append(" | dropped ").append(getDroppedFrames());
+		line.append(", queues ").append(getQueueDepths().values());
+		line.append(", leased ").append(getLeasedFrames());
+		line.append(", engines ").append(getLiveFeatureEngines());
+		line.append(", mats ").append(getLiveMats());
+		line.append(", arenas ").append(getOpenArenas());
+		if (getTrackedFrames() > 0 || getTrackingLosses() > 0) {
+			line.append(", tracked ").append(getTrackedFrames()).append(" (lost ").append(getTrackingLosses()).append(')');
+		}
+		if (getUnchangedFrames() > 0) {
+			line.append(", unchanged ").append(getUnchangedFrames());
+		}
+		if (getMissedDeadlines() > 0) {
+			line.append(", missed deadlines ").append(getMissedDeadlines());
+		}
+		FrameRateGovernor currentGovernor = governor;
+		if (currentGovernor != null) {
+			line.append(", governor ").append(currentGovernor.describe());
+		}
+		if (cache != null) {
+			line.append(String.format(Locale.ROOT, ", cache %.0f%% hits, %d entries, %d evicted", getCacheHitRate() * 100,
+					getCacheSize(), getCacheEvictions()));
+		}
+		return line.toString();
+	}
+
+	/*
+	 * The summary split into short lines that fit on a 640 pixel frame.
+	 */
+	public List<String> getOverlayLines() {
+		List<String> lines = new ArrayList<>();
+		lines.add(String.format(Locale.ROOT, "%.1f fps  dropped %d  leased %d  mats %d", framesPerSecond,
+				getDroppedFrames(), getLeasedFrames(), getLiveMats()));
+		for (String stage : getStages()) {
+			LatencyHistogram histogram = reported(stage);
+			if (histogram.getCount() > 0) {
+				lines.add(String.format(Locale.ROOT, "%-10s p50 %6.1f  p99 %6.1f ms", stage,
+						histogram.getPercentile(0.50) / 1e6, histogram.getPercentile(0.99) / 1e6));
+			}
+		}
+		return lines;
+	}
+
+	@Override
+	public synchronized void reset() {
+		for (LatencyHistogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+		windows.clear();
+		framesCompleted.set(0);
+		lastCompleted = 0;
+		lastReport = System.nanoTime();
+		framesPerSecond = 0;
+	}
+
+	/*
+	 * Print the summary line every period seconds on a daemon thread; the frame rate
+	 * and the percentiles are measured over that period.
+	 */
+	public synchronized void startReporting(long period) {
+		if (reporter != null) {
+			return;
+		}
+		reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "pipeline-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reporter.scheduleAtFixedRate(() -> {
+			updateFrameRate();
+			rollWindow();
+			System.out.println("[metrics] " + getSummary());
+		}, period, period, TimeUnit.SECONDS);
+	}
+
+	public synchronized void stopReporting() {
+		if (reporter != null) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+	}
+
+	/*
+	 * Expose these metrics on the platform MBean server as
+	 * application:type=PipelineMetrics,name=<name>.
+	 */
+	public synchronized void register(String name) {
+		if (objectName != null) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName candidate = new ObjectName("application:type=PipelineMetrics,name=" + ObjectName.quote(name));
+			if (!server.isRegistered(candidate)) {
+				server.registerMBean(this, candidate);
+				objectName = candidate;
+			}
+		} catch (JMException e) {
+			System.err.println("Cannot register the pipeline metrics: " + e);
+		}
+	}
+
+	public synchronized void unregister() {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			System.err.println("Cannot unregister the pipeline metrics: " + e);
+		}
+		objectName = null;
+	}
+
+	/*
+	 * Frames that left the pipeline per second since the previous call.
+	 */
+	public synchronized double updateFrameRate() {
+		long now = System.nanoTime();
+		long completed = getFramesCompleted();
+		long elapsed = now - lastReport;
+		if (elapsed > 0) {
+			framesPerSecond = (completed - lastCompleted) * 1e9 / elapsed;
+		}
+		lastCompleted = completed;
+		lastReport = now;
+		return framesPerSecond;
+	}
+
+	private Map<String, Double> perStage(ToDoubleFunction<LatencyHistogram> value) {
+		Map<String, Double> values = new LinkedHashMap<>();
+		for (String stage : getStages()) {
+			values.put(stage, value.applyAsDouble(reported(stage)));
+		}
+		return values;
+	}
+}
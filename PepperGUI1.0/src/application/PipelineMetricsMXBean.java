@@ -0,0 +1,69 @@
+package application;
+
+import java.util.Map;
+
+/*
+ * JMX view of the PipelineMetrics of a running detection loop.
+ */
+public interface PipelineMetricsMXBean {
+	/* Median latency per stage over the last reporting period, in milliseconds */
+	Map<String, Double> getP50Millis();
+
+	/* 99th percentile latency per stage over the last reporting period, in milliseconds */
+	Map<String, Double> getP99Millis();
+
+	/* Worst latency per stage over the last reporting period, in milliseconds */
+	Map<String, Double> getMaxMillis();
+
+	/* Frames waiting in front of each stage */
+	Map<String, Integer> getQueueDepths();
+
+	long getFramesCompleted();
+
+	long getDroppedFrames();
+
+	double getFramesPerSecond();
+
+	/* Frames per second the source delivers, 0 if it does not measure it */
+	double getCaptureRate();
+
+	/* Ring buffers (native frame Mats) currently leased out */
+	int getLeasedFrames();
+
+	/* Threads holding a native FeatureEngine (detector and matcher of any backend) */
+	int getLiveFeatureEngines();
+
+	/* Per-frame Mats registered with an arena and not released yet */
+	long getLiveMats();
+
+	/* Frame arenas not released yet; grows only if jobs leak */
+	int getOpenArenas();
+
+	/* Frames the ObjectTracker followed instead of detecting */
+	long getTrackedFrames();
+
+	/* Times the ObjectTracker lost its targets and fell back to detection */
+	long getTrackingLosses();
+
+	/* Frames the MotionGate found unchanged */
+	long getUnchangedFrames();
+
+	/* Objects the ParallelRecognizer gave up on at the frame deadline */
+	long getMissedDeadlines();
+
+	/* Settings the FrameRateGovernor has put in force, empty without one */
+	String getGovernorSettings();
+
+	/* Fraction of the frames looked up in the recognition cache that hit, 0 without a cache */
+	double getCacheHitRate();
+
+	long getCacheHits();
+
+	long getCacheEvictions();
+
+	int getCacheSize();
+
+	String getSummary();
+
+	void reset();
+}
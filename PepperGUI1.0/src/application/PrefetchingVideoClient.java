@@ -0,0 +1,92 @@
+package application;
+
+import java.util.List;
+
+import com.aldebaran.qi.AnyObject;
+import com.aldebaran.qi.Future;
+import com.aldebaran.qi.Session;
+
+/*
+ * ALVideoDevice client that keeps one getImageRemote request in flight.
+ *
+ * The blocking proxy made every frame pay a full network round trip before any
+ * processing could start. Here, as soon as an image arrives the request for the
+ * next one is sent through the asynchronous qi call, so the round trip overlaps
+ * with whatever the caller does with the current image. The effective capture rate
+ * is tracked as a moving average of the delivery interval.
+ */
+public class PrefetchingVideoClient {
+	// weight of the newest interval in the moving average
+	private static final double RATE_SMOOTHING = 0.1;
+
+	private final AnyObject videoDevice;
+	private final String clientName;
+	private Future<Object> inFlight;
+	private long lastDelivery = 0;
+	private double averageInterval = 0;
+	private long framesDelivered = 0;
+
+	public PrefetchingVideoClient(Session session, String clientName) throws Exception {
+		this.videoDevice = session.service("ALVideoDevice").get();
+		this.clientName = clientName;
+	}
+
+	/*
+	 * The next image as the ALValue list returned by getImageRemote. Blocks until the
+	 * pending request completes and immediately sends the next one.
+	 */
+	public synchronized List<?> nextImage() throws Exception {
+		if (inFlight == null) {
+			inFlight = request();
+		}
+
+		List<?> image;
+		try {
+			image = (List<?>) inFlight.get();
+		} finally {
+			// the next round trip runs while the caller works on this image
+			inFlight = request();
+		}
+
+		// release the image on the device without waiting for the reply
+		videoDevice.call("releaseImage", clientName);
+		updateRate();
+		return image;
+	}
+
+	/*
+	 * Images delivered per second, averaged over the last few dozen frames.
+	 */
+	public synchronized double getCaptureRate() {
+		return averageInterval > 0 ? 1e9 / averageInterval : 0;
+	}
+
+	public synchronized long getFramesDelivered() {
+		return framesDelivered;
+	}
+
+	/*
+	 * Drop the outstanding request.
+	 */
+	public synchronized void close() {
+		if (inFlight != null) {
+			inFlight.cancel(true);
+			inFlight = null;
+		}
+	}
+
+	private Future<Object> request() {
+		return videoDevice.call("getImageRemote", clientName);
+	}
+
+	private void updateRate() {
+		long now = System.nanoTime();
+		if (lastDelivery != 0) {
+			long interval = now - lastDelivery;
+			averageInterval = averageInterval == 0 ? interval
+					: averageInterval + RATE_SMOOTHING * (interval - averageInterval);
+		}
+		lastDelivery = now;
+		framesDelivered++;
+	}
+}
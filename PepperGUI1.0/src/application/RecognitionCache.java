@@ -0,0 +1,225 @@
+package application;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/*
+ * Recognition results of recently seen frames, looked up by a fingerprint of the
+ * frame so that a frame seen before skips extraction and matching altogether.
+ *
+ * The fingerprint is a 256 bit difference hash: the frame is shrunk to a 17x16 grey
+ * thumbnail and every bit tells whether a pixel is brighter than its right
+ * neighbour. Sensor noise and small lighting changes flip only a few bits, so a
+ * frame hits an entry whose fingerprint is within maxDistance bits of its own. An
+ * entry holds the homography of every object found (none if nothing was) and is
+ * only valid for the catalog version it was computed with.
+ *
+ * The cache keeps at most capacity entries and evicts the least recently used one.
+ * Hits, misses and evictions are counted to size it; see PipelineMetrics.
+ */
+public class RecognitionCache {
+	private static final Size THUMBNAIL = new Size(17, 16);
+	private static final int WORDS = 4;
+
+	private final int capacity;
+	private final int maxDistance;
+	private final Map<Fingerprint, Map<String, Mat>> entries;
+	// created on the first fingerprint
+	private Mat small;
+	private Mat gray;
+	private final byte[] pixels = new byte[17 * 16];
+	private int version = -1;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/*
+	 * 64 frames, matched within 6 of the 256 fingerprint bits.
+	 */
+	public RecognitionCache() {
+		this(64, 6);
+	}
+
+	public RecognitionCache(int capacity, int maxDistance) {
+		this.capacity = capacity;
+		this.maxDistance = maxDistance;
+		this.entries = new LinkedHashMap<Fingerprint, Map<String, Mat>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Fingerprint, Map<String, Mat>> eldest) {
+				if (size() <= RecognitionCache.this.capacity) {
+					return false;
+				}
+				release(eldest.getValue());
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	/*
+	 * Difference hash of the frame.
+	 */
+	public synchronized Fingerprint fingerprint(Mat frame) {
+		if (small == null) {
+			small = new Mat();
+			gray = new Mat();
+		}
+		Imgproc.resize(frame, small, THUMBNAIL, 0, 0, Imgproc.INTER_AREA);
+		if (small.channels() == 1) {
+			small.copyTo(gray);
+		} else {
+			Imgproc.cvtColor(small, gray, Imgproc.COLOR_BGR2GRAY);
+		}
+		gray.get(0, 0, pixels);
+		return fingerprint(pixels);
+	}
+
+	/*
+	 * Difference hash of the 17x16 grey thumbnail whose pixels are given row by row.
+	 */
+	static Fingerprint fingerprint(byte[] pixels) {
+		long[] bits = new long[WORDS];
+		int bit = 0;
+		for (int y = 0; y < 16; y++) {
+			for (int x = 0; x < 16; x++, bit++) {
+				if ((pixels[y * 17 + x] & 0xff) > (pixels[y * 17 + x + 1] & 0xff)) {
+					bits[bit >>> 6] |= 1L << (bit & 63);
+				}
+			}
+		}
+		return new Fingerprint(bits);
+	}
+
+	/*
+	 * Put the cached results of a frame with a close enough fingerprint into the job, as
+	 * known matches. Returns false on a miss.
+	 */
+	public synchronized boolean lookup(Fingerprint fingerprint, int catalogVersion, FrameJob job) {
+		if (catalogVersion != version) {
+			clear();
+			version = catalogVersion;
+		}
+		Map<String, Mat> results = entries.get(fingerprint);
+		if (results == null) {
+			Fingerprint closest = null;
+			int closestDistance = maxDistance + 1;
+			for (Fingerprint candidate : entries.keySet()) {
+				int distance = candidate.distance(fingerprint);
+				if (distance < closestDistance) {
+					closest = candidate;
+					closestDistance = distance;
+				}
+			}
+			if (closest != null) {
+				// get() also moves it to the young end
+				results = entries.get(closest);
+			}
+		}
+		if (results == null) {
+			misses++;
+			return false;
+		}
+		hits++;
+		for (Map.Entry<String, Mat> entry : results.entrySet()) {
+			job.putMatch(entry.getKey(), Match.tracked(MatArena.track(entry.getValue().clone())));
+		}
+		return true;
+	}
+
+	/*
+	 * Remember the homographies of the objects found in a frame; copies are kept, the
+	 * caller still owns the Mats it passes.
+	 */
+	public synchronized void store(Fingerprint fingerprint, int catalogVersion, Map<String, Mat> found) {
+		if (catalogVersion != version) {
+			clear();
+			version = catalogVersion;
+		}
+		Map<String, Mat> copies = new LinkedHashMap<>();
+		for (Map.Entry<String, Mat> entry : found.entrySet()) {
+			copies.put(entry.getKey(), entry.getValue().clone());
+		}
+		Map<String, Mat> replaced = entries.put(fingerprint, copies);
+		if (replaced != null) {
+			release(replaced);
+		}
+	}
+
+	public synchronized void clear() {
+		for (Map<String, Mat> results : entries.values()) {
+			release(results);
+		}
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/*
+	 * Fraction of the lookups that hit, 0 before the first one.
+	 */
+	public synchronized double getHitRate() {
+		long lookups = hits + misses;
+		return lookups > 0 ? (double) hits / lookups : 0;
+	}
+
+	private static void release(Map<String, Mat> results) {
+		for (Mat homography : results.values()) {
+			homography.release();
+		}
+	}
+
+	/*
+	 * A 256 bit frame fingerprint.
+	 */
+	public static final class Fingerprint {
+		private final long[] bits;
+
+		Fingerprint(long[] bits) {
+			this.bits = bits;
+		}
+
+		/*
+		 * Number of bits that differ.
+		 */
+		public int distance(Fingerprint other) {
+			int distance = 0;
+			for (int i = 0; i < WORDS; i++) {
+				distance += Long.bitCount(bits[i] ^ other.bits[i]);
+			}
+			return distance;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Fingerprint && Arrays.equals(bits, ((Fingerprint) other).bits);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(bits);
+		}
+	}
+}
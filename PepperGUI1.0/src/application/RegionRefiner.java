@@ -0,0 +1,120 @@
+package application;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+/*
+ * Second half of multi-resolution detection: an object found on a downscaled frame
+ * is located again at full resolution, inside the region the coarse homography
+ * puts it in.
+ *
+ * The coarse homography is scaled up to frame coordinates, the projected outline
+ * is grown by a margin and features are extracted and matched only inside that
+ * region. The refined homography is shifted back into frame coordinates. If the
+ * region does not give enough matches the scaled coarse homography is kept, so a
+ * detection is never lost to refinement.
+ */
+public class RegionRefiner {
+	// the region is the projected outline grown by this fraction of its size on every side
+	private static final double MARGIN = 0.15;
+	// good matches needed inside the region to trust the refined homography
+	private static final int MIN_MATCHES = 8;
+	// regions smaller than this (in pixels per side) are not worth refining
+	private static final int MIN_REGION = 16;
+
+	private RegionRefiner() {
+	}
+
+	/*
+	 * Full resolution object-to-frame homography for a match found on scaled features,
+	 * or an empty Mat if the coarse match cannot be located at all. A homography
+	 * already known on the match is taken to be in scaled coordinates.
+	 */
+	public static Mat refine(Match coarse, SurfImage object, FrameFeatures scaled, Mat frame) {
+		Mat coarseHomography = Match.getHomography(coarse, object, scaled.asSurfImage());
+		if (coarseHomography.empty()) {
+			return coarseHomography;
+		}
+		Mat homography = unscale(coarseHomography, scaled.getScale());
+
+		Rect region = projectedRegion(homography, object, frame);
+		if (region.width < MIN_REGION || region.height < MIN_REGION) {
+			return homography;
+		}
+
+		FrameFeatures local = FrameFeatures.extract(MatArena.track(frame.submat(region)), object.getBackend());
+		if (local.getKeyPointCount() < MIN_MATCHES) {
+			return homography;
+		}
+		Match fine = new Match(object, local);
+		fine.setMatchThreshold(MIN_MATCHES);
+		Mat localHomography = Match.getHomography(fine, object, local.asSurfImage());
+		if (localHomography.empty()) {
+			return homography;
+		}
+		return translate(localHomography, region.x, region.y);
+	}
+
+	/*
+	 * H maps the object onto the frame scaled by s; diag(1/s, 1/s, 1) * H maps it onto
+	 * the frame itself.
+	 */
+	static Mat unscale(Mat homography, double scale) {
+		double[] h = new double[9];
+		homography.get(0, 0, h);
+		for (int i = 0; i < 6; i++) {
+			h[i] /= scale;
+		}
+		Mat unscaled = MatArena.track(new Mat(3, 3, CvType.CV_64F));
+		unscaled.put(0, 0, h);
+		return unscaled;
+	}
+
+	/*
+	 * H maps the object into a region at (x, y); T(x, y) * H maps it onto the frame.
+	 */
+	static Mat translate(Mat homography, double x, double y) {
+		double[] h = new double[9];
+		homography.get(0, 0, h);
+		for (int i = 0; i < 3; i++) {
+			h[i] += x * h[6 + i];
+			h[3 + i] += y * h[6 + i];
+		}
+		Mat translated = MatArena.track(new Mat(3, 3, CvType.CV_64F));
+		translated.put(0, 0, h);
+		return translated;
+	}
+
+	private static Rect projectedRegion(Mat homography, SurfImage object, Mat frame) {
+		MatOfPoint2f corners = new MatOfPoint2f(new Point(0, 0), new Point(object.getWidth(), 0),
+				new Point(object.getWidth(), object.getHeight()), new Point(0, object.getHeight()));
+		MatOfPoint2f projected = new MatOfPoint2f();
+		Core.perspectiveTransform(corners, projected, homography);
+
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (Point corner : projected.toArray()) {
+			minX = Math.min(minX, corner.x);
+			minY = Math.min(minY, corner.y);
+			maxX = Math.max(maxX, corner.x);
+			maxY = Math.max(maxY, corner.y);
+		}
+		corners.release();
+		projected.release();
+		double marginX = (maxX - minX) * MARGIN;
+		double marginY = (maxY - minY) * MARGIN;
+
+		int left = (int) Math.max(0, Math.floor(minX - marginX));
+		int top = (int) Math.max(0, Math.floor(minY - marginY));
+		int right = (int) Math.min(frame.cols(), Math.ceil(maxX + marginX));
+		int bottom = (int) Math.min(frame.rows(), Math.ceil(maxY + marginY));
+		if (right <= left || bottom <= top) {
+			return new Rect();
+		}
+		return new Rect(left, top, right - left, bottom - top);
+	}
+}
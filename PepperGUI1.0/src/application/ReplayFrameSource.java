@@ -0,0 +1,145 @@
+package application;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/*
+ * Frames replayed from a video file or from a directory of images (in file name
+ * order), so the pipeline can be run and measured without a robot or a camera.
+ */
+public class ReplayFrameSource implements FrameSource {
+	private static final List<String> IMAGE_EXTENSIONS = Arrays.asList(".jpg", ".jpeg", ".png", ".bmp", ".ppm");
+
+	private final File path;
+	private final boolean loop;
+	private final List<File> images = new ArrayList<>();
+	private final VideoCapture capture = new VideoCapture();
+	private int nextImage = 0;
+	private boolean open = false;
+	private boolean exhausted = false;
+
+	/*
+	 * With loop set, the recording starts over at its end instead of running dry.
+	 */
+	public ReplayFrameSource(String path, boolean loop) {
+		this.path = new File(path);
+		this.loop = loop;
+	}
+
+	@Override
+	public synchronized boolean open() {
+		if (open) {
+			return true;
+		}
+
+		images.clear();
+		nextImage = 0;
+		exhausted = false;
+		if (path.isDirectory()) {
+			File[] files = path.listFiles();
+			if (files != null) {
+				Arrays.sort(files);
+				for (File file : files) {
+					if (isImage(file)) {
+						images.add(file);
+					}
+				}
+			}
+			open = !images.isEmpty();
+		} else {
+			open = capture.open(path.getPath());
+		}
+		return open;
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	/*
+	 * True once a non-looping recording has delivered its last frame.
+	 */
+	public synchronized boolean isExhausted() {
+		return exhausted;
+	}
+
+	@Override
+	public synchronized FrameRing.Frame grab(FrameRing ring) {
+		if (!open || exhausted) {
+			return null;
+		}
+
+		FrameRing.Frame frame = ring.acquire();
+		if (frame == null) {
+			return null;
+		}
+
+		boolean read = images.isEmpty() ? readVideo(frame.getMat()) : readImage(frame.getMat());
+		if (!read) {
+			frame.release();
+			return null;
+		}
+		return frame;
+	}
+
+	@Override
+	public synchronized void close() {
+		open = false;
+		if (capture.isOpened()) {
+			capture.release();
+		}
+	}
+
+	private boolean readImage(Mat target) {
+		// skip unreadable files, but give up after one pass over the directory
+		for (int attempt = 0; attempt < images.size(); attempt++) {
+			if (nextImage >= images.size()) {
+				if (!loop) {
+					exhausted = true;
+					return false;
+				}
+				nextImage = 0;
+			}
+
+			File file = images.get(nextImage++);
+			Mat image = Imgcodecs.imread(file.getPath(), Imgcodecs.CV_LOAD_IMAGE_COLOR);
+			if (!image.empty()) {
+				image.copyTo(target);
+				image.release();
+				return true;
+			}
+			System.err.println("Cannot read the replay image " + file);
+		}
+		return false;
+	}
+
+	private boolean readVideo(Mat target) {
+		if (capture.read(target) && !target.empty()) {
+			return true;
+		}
+		if (loop && capture.set(Videoio.CAP_PROP_POS_FRAMES, 0) && capture.read(target) && !target.empty()) {
+			return true;
+		}
+		exhausted = true;
+		return false;
+	}
+
+	static boolean isImage(File file) {
+		String name = file.getName().toLowerCase(Locale.ROOT);
+		for (String extension : IMAGE_EXTENSIONS) {
+			if (name.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
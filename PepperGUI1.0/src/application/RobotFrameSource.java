@@ -0,0 +1,83 @@
+package application;
+
+/*
+ * Frames from Pepper's camera through ALVideoDevice (see CameraModule).
+ */
+public class RobotFrameSource implements FrameSource {
+	private final CameraModule camera;
+	private final String clientName;
+	private int resolution;
+	private int frameRate;
+
+	public RobotFrameSource(CameraModule camera, String clientName) {
+		this(camera, clientName, videoResolution.kQVGA, 30);
+	}
+
+	public RobotFrameSource(CameraModule camera, String clientName, int resolution, int frameRate) {
+		this.camera = camera;
+		this.clientName = clientName;
+		this.resolution = resolution;
+		this.frameRate = frameRate;
+	}
+
+	@Override
+	public boolean open() {
+		if (!camera.robotCameraConnected()) {
+			camera.connectRobotCamera(clientName, resolution, frameRate);
+		}
+		return camera.robotCameraConnected();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return camera.robotCameraConnected();
+	}
+
+	@Override
+	public FrameRing.Frame grab(FrameRing ring) {
+		return camera.nextFrame(ring);
+	}
+
+	/*
+	 * Images per second received from the robot, see PrefetchingVideoClient.
+	 */
+	@Override
+	public double getCaptureRate() {
+		return camera.getCaptureRate();
+	}
+
+	@Override
+	public void close() {
+		if (camera.robotCameraConnected()) {
+			camera.stopStreaming();
+		}
+	}
+
+	/*
+	 * Ask the robot for fewer or more images; kept for the next open() either way.
+	 */
+	public boolean setFrameRate(int frameRate) {
+		this.frameRate = frameRate;
+		return !camera.robotCameraConnected() || camera.setFrameRate(frameRate);
+	}
+
+	public int getFrameRate() {
+		return frameRate;
+	}
+
+	/*
+	 * One of the videoResolution constants; kept for the next open() either way.
+	 */
+	public boolean setResolution(int resolution) {
+		this.resolution = resolution;
+		return !camera.robotCameraConnected() || camera.setResolution(resolution);
+	}
+
+	public int getResolution() {
+		return resolution;
+	}
+
+	public CameraModule getCamera() {
+		return camera;
+	}
+}
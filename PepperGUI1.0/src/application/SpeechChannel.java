@@ -0,0 +1,78 @@
+package application;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/*
+ * Asynchronous, rate-limited speech output for the vision loop.
+ *
+ * say() never blocks: the sentence is spoken on a dedicated worker thread. While
+ * the robot is still speaking, new sentences are dropped rather than queued, and a
+ * sentence is not repeated until repeatWindow milliseconds after it was last
+ * spoken, so a detection that holds for many frames is announced once.
+ */
+public class SpeechChannel {
+	private final Consumer<String> speaker;
+	private final long repeatWindow;
+	private final ExecutorService worker;
+	private final AtomicBoolean speaking = new AtomicBoolean(false);
+	private final Map<String, Long> lastSpoken = new ConcurrentHashMap<>();
+
+	public SpeechChannel(Consumer<String> speaker, long repeatWindow) {
+		this.speaker = speaker;
+		this.repeatWindow = repeatWindow;
+		this.worker = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "speech");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/*
+	 * Speak the sentence unless the robot is busy or said it too recently. Returns
+	 * whether the sentence was accepted.
+	 */
+	public boolean say(String sentence) {
+		if (recentlySpoken(sentence) || !speaking.compareAndSet(false, true)) {
+			return false;
+		}
+		lastSpoken.put(sentence, System.currentTimeMillis());
+
+		try {
+			worker.execute(() -> {
+				try {
+					speaker.accept(sentence);
+				} finally {
+					// the repeat window counts from the end of the utterance
+					lastSpoken.put(sentence, System.currentTimeMillis());
+					speaking.set(false);
+				}
+			});
+		} catch (RuntimeException e) {
+			// the channel has been closed
+			speaking.set(false);
+			return false;
+		}
+		return true;
+	}
+
+	public boolean isSpeaking() {
+		return speaking.get();
+	}
+
+	/*
+	 * Stop the worker; whatever is being said is not interrupted on the robot.
+	 */
+	public void close() {
+		worker.shutdownNow();
+	}
+
+	private boolean recentlySpoken(String sentence) {
+		Long last = lastSpoken.get(sentence);
+		return last != null && System.currentTimeMillis() - last < repeatWindow;
+	}
+}
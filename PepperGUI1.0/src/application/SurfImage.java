@@ -27,8 +27,14 @@ import org.opencv.imgproc.Imgproc;
  * Created by Sergio Rodriguez 11/17/17
  */
 public class SurfImage {
+	private FeatureBackend backend = FeatureBackend.getDefault();
+	private String imagePath;
 	private Mat objectMat;
+	private int width;
+	private int height;
 	private MatOfKeyPoint objectKeyPoints;
+	private volatile float[] keyPointCoordinates;
+	private volatile float[] keyPointShapes;
 	private FeatureDetector featureDetector;
 	private MatOfKeyPoint objectDescriptor;
 	private DescriptorExtractor descriptorExtractor;
@@ -37,8 +43,8 @@ public class SurfImage {
 		//Load needed libraries
 		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
 		
-		//Read in Image
-		objectMat = Imgcodecs.imread(imagePath, Imgcodecs.CV_LOAD_IMAGE_COLOR);
+		//Image is read on first use; with cached features it may not be needed at all
+		this.imagePath = imagePath;
 	}
 	
 	public SurfImage(Mat currentMatrix){
@@ -50,32 +56,138 @@ public class SurfImage {
 	}	
 	
 	public void getSurfFeatures(){//Obtain the SIFT/SURF features of the image
-		featureDetector = FeatureDetector.create(FeatureDetector.SURF);
-		objectKeyPoints = new MatOfKeyPoint();
-		featureDetector.detect(objectMat, objectKeyPoints);
+		//Detector and extractor are reused per thread instead of created per call
+		FeatureEngine engine = FeatureEngine.current(backend);
+		featureDetector = engine.getDetector();
+		descriptorExtractor = engine.getExtractor();
 		
-		//Compute the key points of the image
-		objectDescriptor = new MatOfKeyPoint();
-		descriptorExtractor = DescriptorExtractor.create(DescriptorExtractor.SURF);
-        descriptorExtractor.compute(objectMat, objectKeyPoints, objectDescriptor);
+		//Detect the key points of the image and compute their descriptors
+		//Per-frame images release these with their frame (see MatArena)
+		objectKeyPoints = MatArena.track(new MatOfKeyPoint());
+		keyPointCoordinates = null;
+		keyPointShapes = null;
+		objectDescriptor = MatArena.track(new MatOfKeyPoint());
+		engine.detectAndCompute(getObjectMat(), objectKeyPoints, objectDescriptor);
+	}
+	
+	/*
+	 * Same as getSurfFeatures(), but reference images loaded from disk are looked up in
+	 * the store first and only computed (and then cached) on a miss.
+	 */
+	public void getSurfFeatures(DescriptorStore store){
+		if(store != null && store.load(this))
+			return;
+		
+		getSurfFeatures();
+		
+		if(store != null)
+			store.save(this);
 	}
 
 	public Mat getObjectMat() {
+		if(objectMat == null && imagePath != null) {
+			objectMat = Imgcodecs.imread(imagePath, Imgcodecs.CV_LOAD_IMAGE_COLOR);
+		}
 		return objectMat;
 	}
 
 	public void setObjectMat(Mat objectMat) {
 		this.objectMat = objectMat;
 	}
+	
+	public String getImagePath() {
+		return imagePath;
+	}
+	
+	public String getFeatureParameters() {
+		return backend.getParameters();
+	}
+	
+	/*
+	 * Detector used by getSurfFeatures(); SURF unless -Dfeature.backend says otherwise.
+	 */
+	public FeatureBackend getBackend() {
+		return backend;
+	}
+	
+	public void setBackend(FeatureBackend backend) {
+		this.backend = backend;
+	}
+	
+	/*
+	 * Image size; known without decoding the image when the features came from the store.
+	 */
+	public int getWidth() {
+		if(width == 0 && getObjectMat() != null)
+			width = getObjectMat().cols();
+		return width;
+	}
+	
+	public int getHeight() {
+		if(height == 0 && getObjectMat() != null)
+			height = getObjectMat().rows();
+		return height;
+	}
+	
+	public void setSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
 
 	public MatOfKeyPoint getObjectKeyPoints() {
 		return objectKeyPoints;
 	}
 
 	public void setObjectKeyPoints(MatOfKeyPoint objectKeyPoints) {
+		this.keyPointCoordinates = null;
+		this.keyPointShapes = null;
 		this.objectKeyPoints = objectKeyPoints;
 	}
 
+	/*
+	 * x, y of every keypoint, interleaved, read from the keypoint Mat in one bulk get
+	 * the first time they are needed.
+	 */
+	public float[] getKeyPointCoordinates() {
+		float[] coordinates = keyPointCoordinates;
+		if(coordinates == null) {
+			readKeyPoints();
+			coordinates = keyPointCoordinates;
+		}
+		return coordinates;
+	}
+	
+	/*
+	 * size, angle (degrees, -1 if the detector gives none) of every keypoint, interleaved,
+	 * read together with the coordinates.
+	 */
+	public float[] getKeyPointShapes() {
+		float[] shapes = keyPointShapes;
+		if(shapes == null) {
+			readKeyPoints();
+			shapes = keyPointShapes;
+		}
+		return shapes;
+	}
+	
+	private void readKeyPoints() {
+		//Each keypoint is 7 floats: x, y, size, angle, response, octave, class_id
+		int count = (int) objectKeyPoints.total();
+		float[] keyPoints = new float[count * 7];
+		if(count > 0)
+			objectKeyPoints.get(0, 0, keyPoints);
+		float[] coordinates = new float[count * 2];
+		float[] shapes = new float[count * 2];
+		for(int i = 0; i < count; i++) {
+			coordinates[i * 2] = keyPoints[i * 7];
+			coordinates[i * 2 + 1] = keyPoints[i * 7 + 1];
+			shapes[i * 2] = keyPoints[i * 7 + 2];
+			shapes[i * 2 + 1] = keyPoints[i * 7 + 3];
+		}
+		keyPointShapes = shapes;
+		keyPointCoordinates = coordinates;
+	}
+	
 	public FeatureDetector getFeatureDetector() {
 		return featureDetector;
 	}
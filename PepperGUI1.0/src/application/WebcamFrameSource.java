@@ -0,0 +1,55 @@
+package application;
+
+import org.opencv.videoio.VideoCapture;
+
+/*
+ * Frames from a local camera through OpenCV's VideoCapture.
+ */
+public class WebcamFrameSource implements FrameSource {
+	private final int cameraId;
+	private final VideoCapture capture = new VideoCapture();
+
+	public WebcamFrameSource(int cameraId) {
+		this.cameraId = cameraId;
+	}
+
+	@Override
+	public boolean open() {
+		return capture.isOpened() || capture.open(cameraId);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return capture.isOpened();
+	}
+
+	@Override
+	public FrameRing.Frame grab(FrameRing ring) {
+		if (!capture.isOpened()) {
+			return null;
+		}
+
+		FrameRing.Frame frame = ring.acquire();
+		if (frame == null) {
+			// every buffer is still in use downstream: skip this frame
+			return null;
+		}
+
+		try {
+			if (capture.read(frame.getMat()) && !frame.getMat().empty()) {
+				return frame;
+			}
+		} catch (Exception e) {
+			System.err.println("Exception during the image elaboration: " + e);
+		}
+		frame.release();
+		return null;
+	}
+
+	@Override
+	public void close() {
+		if (capture.isOpened()) {
+			capture.release();
+		}
+	}
+}
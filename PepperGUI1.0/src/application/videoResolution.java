@@ -0,0 +1,10 @@
+package application;
+
+class videoResolution {
+	// kQQVGA (160x120), kQVGA (320x240),
+	// kVGA (640x480) or k4VGA (1280x960, only with the HD camera).		 
+	public final static int kQQVGA = 0;
+	public final static int kQVGA = 1;
+	public final static int kVGA = 2;
+	public final static int k4VGA = 3;
+}
@@ -0,0 +1,178 @@
+package benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import Utils.Utils;
+import application.FeatureBackend;
+import application.Match;
+import application.SurfImage;
+
+/*
+ * Micro-benchmark of the recognition hot path over the bundled images.
+ *
+ * Each object/scene pair is run with the scene scaled to QQVGA, QVGA and VGA, and
+ * SurfImage.getSurfFeatures, the Match constructor (findMatches), the homography
+ * verification (Match.estimateHomography, which getHomography runs once per match)
+ * and Utils.mat2Image are timed separately. Every operation gets a warmup phase so
+ * the JIT and the native allocators settle, then a fixed number of timed calls whose
+ * latencies are kept to report throughput and p50/p99.
+ *
+ * Run from the PepperGUI1.0 directory:
+ *   java benchmark.HotPathBenchmark [imagesDir] [warmupCalls] [timedCalls] [SURF|ORB|AKAZE|BRISK]
+ */
+public class HotPathBenchmark {
+	private static final String[][] PAIRS = {
+			{ "bookObject.jpg", "bookScene.jpg" },
+			{ "nemo.jpg", "nemoScene.jpg" },
+			{ "buildingObject.jpg", "buildingScene.jpg" },
+	};
+	private static final String[] SIZE_NAMES = { "QQVGA", "QVGA", "VGA" };
+	private static final Size[] SIZES = { new Size(160, 120), new Size(320, 240), new Size(640, 480) };
+
+	// result of each call is kept here so the JIT cannot drop the work
+	private static Object sink;
+
+	private final int warmupCalls;
+	private final int timedCalls;
+
+	public HotPathBenchmark(int warmupCalls, int timedCalls) {
+		this.warmupCalls = warmupCalls;
+		this.timedCalls = timedCalls;
+	}
+
+	public static void main(String[] args) {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+		String imagesDir = args.length > 0 ? args[0] : "images";
+		int warmupCalls = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int timedCalls = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		if (args.length > 3) {
+			FeatureBackend.setDefault(FeatureBackend.valueOf(args[3].toUpperCase()));
+		}
+		System.out.println("backend " + FeatureBackend.getDefault());
+
+		HotPathBenchmark benchmark = new HotPathBenchmark(warmupCalls, timedCalls);
+		System.out.println(Result.header());
+		for (String[] pair : PAIRS) {
+			Mat object = Imgcodecs.imread(new File(imagesDir, pair[0]).getPath(), Imgcodecs.IMREAD_GRAYSCALE);
+			Mat scene = Imgcodecs.imread(new File(imagesDir, pair[1]).getPath(), Imgcodecs.IMREAD_GRAYSCALE);
+			if (object.empty() || scene.empty()) {
+				System.err.println("Cannot read " + pair[0] + " / " + pair[1] + " from " + imagesDir);
+				continue;
+			}
+			for (int i = 0; i < SIZES.length; i++) {
+				Mat scaled = new Mat();
+				Imgproc.resize(scene, scaled, SIZES[i], 0, 0, Imgproc.INTER_AREA);
+				for (Result result : benchmark.run(pair[0], SIZE_NAMES[i], object, scaled)) {
+					System.out.println(result);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Time the four operations for one object against one scaled scene.
+	 */
+	public List<Result> run(String pair, String size, Mat object, Mat scene) {
+		SurfImage objectImage = new SurfImage(object);
+		objectImage.getSurfFeatures();
+		SurfImage sceneImage = new SurfImage(scene);
+		sceneImage.getSurfFeatures();
+		Match match = new Match(objectImage, sceneImage);
+		// let the homography run whatever the number of good matches
+		match.setMatchThreshold(4);
+		Mat colorScene = new Mat();
+		Imgproc.cvtColor(scene, colorScene, Imgproc.COLOR_GRAY2BGR);
+
+		List<Result> results = new ArrayList<>();
+		results.add(measure(pair, size, "getSurfFeatures", () -> {
+			SurfImage image = new SurfImage(scene);
+			image.getSurfFeatures();
+			sink = image;
+		}));
+		results.add(measure(pair, size, "findMatches", () -> sink = new Match(objectImage, sceneImage)));
+		results.add(measure(pair, size, "getHomography", () -> sink = Match.estimateHomography(match, objectImage, sceneImage)));
+		results.add(measure(pair, size, "mat2Image", () -> sink = Utils.mat2Image(colorScene)));
+		return results;
+	}
+
+	private Result measure(String pair, String size, String operation, Runnable call) {
+		for (int i = 0; i < warmupCalls; i++) {
+			call.run();
+		}
+
+		long[] latencies = new long[timedCalls];
+		long start = System.nanoTime();
+		for (int i = 0; i < timedCalls; i++) {
+			long begin = System.nanoTime();
+			call.run();
+			latencies[i] = System.nanoTime() - begin;
+		}
+		long elapsed = System.nanoTime() - start;
+		return new Result(pair, size, operation, latencies, elapsed);
+	}
+
+	/*
+	 * Throughput and latency percentiles of one operation.
+	 */
+	public static final class Result {
+		private final String pair;
+		private final String size;
+		private final String operation;
+		private final double throughput;
+		private final long p50;
+		private final long p99;
+
+		Result(String pair, String size, String operation, long[] latencies, long elapsed) {
+			this.pair = pair;
+			this.size = size;
+			this.operation = operation;
+			this.throughput = elapsed > 0 ? latencies.length * 1e9 / elapsed : 0;
+			long[] sorted = latencies.clone();
+			Arrays.sort(sorted);
+			this.p50 = percentile(sorted, 0.50);
+			this.p99 = percentile(sorted, 0.99);
+		}
+
+		public double getThroughput() {
+			return throughput;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP99() {
+			return p99;
+		}
+
+		static String header() {
+			return String.format(Locale.ROOT, "%-20s %-6s %-16s %12s %12s %12s",
+					"pair", "size", "operation", "ops/s", "p50 (ms)", "p99 (ms)");
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%-20s %-6s %-16s %12.1f %12.3f %12.3f",
+					pair, size, operation, throughput, p50 / 1e6, p99 / 1e6);
+		}
+
+		private static long percentile(long[] sorted, double fraction) {
+			if (sorted.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(fraction * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+		}
+	}
+}
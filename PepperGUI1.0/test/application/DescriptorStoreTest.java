@@ -0,0 +1,156 @@
+package application;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNoException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.KeyPoint;
+import org.opencv.core.MatOfKeyPoint;
+
+public class DescriptorStoreTest {
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("descriptor-store").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	@Test
+	public void sameImageAndParametersGiveTheSameKey() throws IOException {
+		File image = writeImage("object.jpg", new byte[] { 1, 2, 3 });
+		File copy = writeImage("copy.jpg", new byte[] { 1, 2, 3 });
+		assertEquals(DescriptorStore.cacheKey(image, "SURF/default"), DescriptorStore.cacheKey(copy, "SURF/default"));
+	}
+
+	@Test
+	public void changedImageGivesANewKey() throws IOException {
+		File image = writeImage("object.jpg", new byte[] { 1, 2, 3 });
+		String before = DescriptorStore.cacheKey(image, "SURF/default");
+		writeImage("object.jpg", new byte[] { 1, 2, 4 });
+		assertNotEquals(before, DescriptorStore.cacheKey(image, "SURF/default"));
+	}
+
+	@Test
+	public void changedDetectorParametersGiveANewKey() throws IOException {
+		File image = writeImage("object.jpg", new byte[] { 1, 2, 3 });
+		assertNotEquals(DescriptorStore.cacheKey(image, FeatureBackend.SURF.getParameters()),
+				DescriptorStore.cacheKey(image, FeatureBackend.ORB.getParameters()));
+	}
+
+	@Test
+	public void savedFeaturesLoadBackFromTheMappedEntry() throws IOException {
+		assumeNativeLibrary();
+		File image = writeImage("object.jpg", new byte[] { 1, 2, 3 });
+		DescriptorStore store = new DescriptorStore(directory.getPath());
+		float[] values = descriptorValues(2, 64);
+		store.save(features(image, values));
+
+		SurfImage loaded = new SurfImage(image.getPath());
+		assertTrue(store.load(loaded));
+		assertEquals(320, loaded.getWidth());
+		assertEquals(240, loaded.getHeight());
+
+		KeyPoint[] keyPoints = loaded.getObjectKeyPoints().toArray();
+		assertEquals(2, keyPoints.length);
+		assertEquals(10.5, keyPoints[0].pt.x, 0);
+		assertEquals(20.25, keyPoints[0].pt.y, 0);
+		assertEquals(12, keyPoints[0].size, 0);
+		assertEquals(45, keyPoints[0].angle, 0);
+		assertEquals(0.5, keyPoints[0].response, 0);
+		assertEquals(1, keyPoints[0].octave);
+		assertEquals(7, keyPoints[0].class_id);
+		assertEquals(-1, keyPoints[1].class_id);
+
+		MatOfKeyPoint descriptor = loaded.getObjectDescriptor();
+		assertEquals(2, descriptor.rows());
+		assertEquals(64, descriptor.cols());
+		assertEquals(CvType.CV_32F, descriptor.type());
+		float[] loadedValues = new float[values.length];
+		descriptor.get(0, 0, loadedValues);
+		assertArrayEquals(values, loadedValues, 0);
+	}
+
+	@Test
+	public void entryWithAnotherFileTagIsAMiss() throws IOException {
+		assumeNativeLibrary();
+		File image = writeImage("object.jpg", new byte[] { 1, 2, 3 });
+		DescriptorStore store = new DescriptorStore(directory.getPath());
+		SurfImage saved = features(image, descriptorValues(2, 64));
+		store.save(saved);
+
+		File entry = new File(directory, DescriptorStore.cacheKey(image, saved.getFeatureParameters()) + ".feat");
+		assertTrue(entry.isFile());
+		try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+			// the tag entries were written with before it was renamed
+			file.writeInt(0x53555246);
+		}
+		assertFalse(store.load(new SurfImage(image.getPath())));
+	}
+
+	private static void assumeNativeLibrary() {
+		try {
+			System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		} catch (UnsatisfiedLinkError e) {
+			assumeNoException(e);
+		}
+	}
+
+	/*
+	 * An image with two keypoints and a descriptor row per keypoint, as detection
+	 * would leave it.
+	 */
+	private static SurfImage features(File image, float[] values) {
+		SurfImage features = new SurfImage(image.getPath());
+		features.setSize(320, 240);
+		features.setObjectKeyPoints(new MatOfKeyPoint(
+				new KeyPoint(10.5f, 20.25f, 12, 45, 0.5f, 1, 7),
+				new KeyPoint(3, 4, 8, -1, 0.25f, 0, -1)));
+		MatOfKeyPoint descriptor = new MatOfKeyPoint();
+		descriptor.create(2, values.length / 2, CvType.CV_32F);
+		descriptor.put(0, 0, values);
+		features.setObjectDescriptor(descriptor);
+		return features;
+	}
+
+	private static float[] descriptorValues(int rows, int cols) {
+		float[] values = new float[rows * cols];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i * 0.125f - 3;
+		}
+		return values;
+	}
+
+	private File writeImage(String name, byte[] bytes) throws IOException {
+		File image = new File(directory, name);
+		Files.write(image.toPath(), bytes);
+		return image;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
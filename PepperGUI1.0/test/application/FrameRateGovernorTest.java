@@ -0,0 +1,69 @@
+package application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FrameRateGovernorTest {
+	private static final long BUDGET = 100000000;
+	private static final int SLOWEST = FrameRateGovernor.getSlowestLevel(1, 1);
+
+	@Test
+	public void stepsDownWhenOverBudget() {
+		assertEquals(1, FrameRateGovernor.step(0, SLOWEST, BUDGET, BUDGET + 1, 20, 0));
+	}
+
+	@Test
+	public void stepsDownWhenDroppingMoreThanShowing() {
+		assertEquals(3, FrameRateGovernor.step(2, SLOWEST, BUDGET, BUDGET / 2, 4, 5));
+	}
+
+	@Test
+	public void stepsUpOnlyWellWithinBudget() {
+		assertEquals(2, FrameRateGovernor.step(3, SLOWEST, BUDGET, BUDGET / 2, 20, 0));
+		// inside the budget but not by enough headroom
+		assertEquals(3, FrameRateGovernor.step(3, SLOWEST, BUDGET, BUDGET * 8 / 10, 20, 0));
+	}
+
+	@Test
+	public void staysOnTooFewFrames() {
+		assertEquals(3, FrameRateGovernor.step(3, SLOWEST, BUDGET, BUDGET / 10, 4, 0));
+	}
+
+	@Test
+	public void staysWhileStillDropping() {
+		assertEquals(3, FrameRateGovernor.step(3, SLOWEST, BUDGET, BUDGET / 10, 20, 6));
+	}
+
+	@Test
+	public void staysWithinTheLadder() {
+		assertEquals(0, FrameRateGovernor.step(0, SLOWEST, BUDGET, BUDGET / 10, 30, 0));
+		assertEquals(SLOWEST, FrameRateGovernor.step(SLOWEST, SLOWEST, BUDGET, BUDGET * 2, 30, 0));
+	}
+
+	@Test
+	public void ladderGetsSlowerAtEveryLevel() {
+		for (int level = 1; level <= SLOWEST; level++) {
+			int previousRate = FrameRateGovernor.getFrameRate(level - 1);
+			int rate = FrameRateGovernor.getFrameRate(level);
+			int previousEvery = FrameRateGovernor.getDetectEvery(level - 1);
+			int every = FrameRateGovernor.getDetectEvery(level);
+			assertTrue("level " + level, rate <= previousRate && every >= previousEvery);
+			assertTrue("level " + level, rate < previousRate || every > previousEvery);
+		}
+	}
+
+	@Test
+	public void resolutionOnlyDropsPastTheLadder() {
+		int full = 2;
+		int slowest = FrameRateGovernor.getSlowestLevel(full, 0);
+		int lastRung = FrameRateGovernor.getSlowestLevel(full, full);
+		for (int level = 0; level <= lastRung; level++) {
+			assertEquals(full, FrameRateGovernor.getResolution(level, full));
+		}
+		assertEquals(1, FrameRateGovernor.getResolution(lastRung + 1, full));
+		assertEquals(0, FrameRateGovernor.getResolution(slowest, full));
+		assertEquals(FrameRateGovernor.getFrameRate(lastRung), FrameRateGovernor.getFrameRate(slowest));
+	}
+}
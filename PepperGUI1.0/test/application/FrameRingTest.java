@@ -0,0 +1,106 @@
+package application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Mat;
+
+public class FrameRingTest {
+	private FrameRing ring;
+
+	@Before
+	public void setUp() {
+		// the lease bookkeeping never touches the buffers themselves
+		ring = new FrameRing(new Mat[3]);
+	}
+
+	@Test
+	public void acquireHandsOutEveryBufferOnce() {
+		FrameRing.Frame first = ring.acquire();
+		FrameRing.Frame second = ring.acquire();
+		FrameRing.Frame third = ring.acquire();
+		assertNotNull(first);
+		assertNotNull(second);
+		assertNotNull(third);
+		assertNotSame(first, second);
+		assertNotSame(second, third);
+		assertNotSame(first, third);
+		assertEquals(0, ring.getAvailable());
+		assertNull(ring.acquire());
+	}
+
+	@Test
+	public void sequenceNumbersIncrease() {
+		FrameRing.Frame first = ring.acquire();
+		FrameRing.Frame second = ring.acquire();
+		first.release();
+		FrameRing.Frame third = ring.acquire();
+		assertTrue(second.getSequence() > first.getSequence());
+		assertTrue(third.getSequence() > second.getSequence());
+	}
+
+	@Test
+	public void bufferIsFreeOnlyOnceEveryLeaseIsReleased() {
+		FrameRing.Frame frame = ring.acquire();
+		frame.retain();
+		assertEquals(2, frame.getReferenceCount());
+		assertEquals(2, ring.getAvailable());
+
+		frame.release();
+		assertEquals(1, frame.getReferenceCount());
+		assertEquals(2, ring.getAvailable());
+
+		frame.release();
+		assertEquals(0, frame.getReferenceCount());
+		assertEquals(3, ring.getAvailable());
+	}
+
+	@Test
+	public void heldBufferIsNotHandedOutAgain() {
+		FrameRing.Frame held = ring.acquire();
+		ring.acquire().release();
+		ring.acquire().release();
+		for (int i = 0; i < 6; i++) {
+			FrameRing.Frame frame = ring.acquire();
+			assertNotSame(held, frame);
+			frame.release();
+		}
+	}
+
+	@Test
+	public void releasedBufferIsReused() {
+		FrameRing.Frame first = ring.acquire();
+		ring.acquire();
+		ring.acquire();
+		first.release();
+		assertSame(first, ring.acquire());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void retainAfterReleaseFails() {
+		FrameRing.Frame frame = ring.acquire();
+		frame.release();
+		frame.retain();
+	}
+
+	@Test
+	public void releasingTooOftenFailsWithoutFreeingTwice() {
+		FrameRing.Frame frame = ring.acquire();
+		frame.release();
+		try {
+			frame.release();
+			fail("released twice");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(0, frame.getReferenceCount());
+		assertEquals(3, ring.getAvailable());
+	}
+}
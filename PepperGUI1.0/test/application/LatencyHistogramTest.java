@@ -0,0 +1,87 @@
+package application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void emptyHistogramReportsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(0.5));
+		assertEquals(0, histogram.getPercentile(0.99));
+		assertEquals(0, histogram.getMean(), 0);
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 10; value++) {
+			histogram.record(value);
+		}
+		assertEquals(10, histogram.getCount());
+		assertEquals(5, histogram.getPercentile(0.5));
+		assertEquals(9, histogram.getPercentile(0.9));
+		assertEquals(10, histogram.getPercentile(1.0));
+		assertEquals(5.5, histogram.getMean(), 1e-9);
+	}
+
+	@Test
+	public void bucketsHoldTheirValuesWithinASixteenth() {
+		for (long value = 1; value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+			int index = LatencyHistogram.indexOf(value);
+			long highest = LatencyHistogram.highestValueOf(index);
+			assertTrue("bucket of " + value + " ends at " + highest, highest >= value);
+			assertTrue("bucket of " + value + " ends at " + highest, highest - value <= value / 16);
+			assertEquals(index, LatencyHistogram.indexOf(highest));
+		}
+	}
+
+	@Test
+	public void bucketsAreContiguous() {
+		for (int index = 0; index < 500; index++) {
+			long highest = LatencyHistogram.highestValueOf(index);
+			assertEquals(index + 1, LatencyHistogram.indexOf(highest + 1));
+		}
+	}
+
+	@Test
+	public void percentilesSeparateTheTail() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 990; i++) {
+			histogram.record(1000000);
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(100000000);
+		}
+		// never above the largest value recorded, and within a bucket of the real one
+		assertEquals(1000000, histogram.getPercentile(0.5), 1000000 / 16);
+		assertEquals(1000000, histogram.getPercentile(0.99), 1000000 / 16);
+		assertEquals(100000000, histogram.getPercentile(0.999));
+		assertEquals(100000000, histogram.getMax());
+	}
+
+	@Test
+	public void negativeValuesCountAsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		assertEquals(1, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(1.0));
+	}
+
+	@Test
+	public void resetForgetsEverything() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(42);
+		histogram.record(4200000);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getPercentile(0.99));
+		histogram.record(7);
+		assertEquals(7, histogram.getPercentile(0.5));
+	}
+}
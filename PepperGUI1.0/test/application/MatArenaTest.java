@@ -0,0 +1,159 @@
+package application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.opencv.core.Mat;
+
+public class MatArenaTest {
+	/*
+	 * A Mat that only counts its releases; the address is never handed to native code.
+	 */
+	private static final class CountingMat extends Mat {
+		private int releases;
+
+		CountingMat() {
+			super(1L);
+		}
+
+		@Override
+		public void release() {
+			releases++;
+		}
+
+		@Override
+		protected void finalize() {
+		}
+	}
+
+	@Test
+	public void closingTheScopeReleasesEveryTrackedMat() {
+		long live = MatArena.getLiveMats();
+		long released = MatArena.getReleasedMats();
+		int open = MatArena.getOpenArenas();
+
+		CountingMat first = new CountingMat();
+		CountingMat second = new CountingMat();
+		CountingMat third = new CountingMat();
+		MatArena arena = new MatArena();
+		assertEquals(open + 1, MatArena.getOpenArenas());
+		MatArena previous = MatArena.setCurrent(arena);
+		try {
+			assertSame(first, MatArena.track(first));
+			MatArena.trackAll(Arrays.asList(second, third));
+		} finally {
+			MatArena.setCurrent(previous);
+		}
+		assertEquals(3, arena.size());
+		assertEquals(live + 3, MatArena.getLiveMats());
+		assertEquals(0, first.releases);
+
+		arena.close();
+		assertEquals(1, first.releases);
+		assertEquals(1, second.releases);
+		assertEquals(1, third.releases);
+		assertEquals(0, arena.size());
+		assertEquals(live, MatArena.getLiveMats());
+		assertEquals(released + 3, MatArena.getReleasedMats());
+		assertEquals(open, MatArena.getOpenArenas());
+	}
+
+	@Test
+	public void trackOutsideAnArenaDoesNothing() {
+		assertNull(MatArena.current());
+		long live = MatArena.getLiveMats();
+		CountingMat mat = new CountingMat();
+		assertSame(mat, MatArena.track(mat));
+		assertFalse(MatArena.recycle(() -> { }));
+		assertEquals(live, MatArena.getLiveMats());
+		assertEquals(0, mat.releases);
+	}
+
+	@Test
+	public void retainedArenaIsReleasedByTheLastHolderOnAnotherThread() throws InterruptedException {
+		long live = MatArena.getLiveMats();
+		int open = MatArena.getOpenArenas();
+		CountingMat mat = new CountingMat();
+		MatArena arena = new MatArena();
+		arena.add(mat);
+		MatArena held = arena.retain();
+
+		CountDownLatch tracked = new CountDownLatch(1);
+		CountDownLatch closed = new CountDownLatch(1);
+		CountingMat late = new CountingMat();
+		Thread worker = new Thread(() -> {
+			MatArena previous = MatArena.setCurrent(held);
+			try {
+				MatArena.track(late);
+				tracked.countDown();
+				closed.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				MatArena.setCurrent(previous);
+				held.close();
+			}
+		});
+		worker.start();
+		tracked.await();
+
+		// the owner is done first; the worker still holds the arena
+		arena.close();
+		assertEquals(0, mat.releases);
+		assertEquals(0, late.releases);
+		assertEquals(live + 2, MatArena.getLiveMats());
+		assertEquals(open + 1, MatArena.getOpenArenas());
+
+		closed.countDown();
+		worker.join();
+		assertEquals(1, mat.releases);
+		assertEquals(1, late.releases);
+		assertEquals(live, MatArena.getLiveMats());
+		assertEquals(open, MatArena.getOpenArenas());
+	}
+
+	@Test
+	public void recyclersRunWhenTheArenaIsReleased() {
+		AtomicInteger recycled = new AtomicInteger();
+		MatArena arena = new MatArena();
+		MatArena previous = MatArena.setCurrent(arena);
+		try {
+			assertTrue(MatArena.recycle(recycled::incrementAndGet));
+		} finally {
+			MatArena.setCurrent(previous);
+		}
+		arena.retain().close();
+		assertEquals(0, recycled.get());
+		arena.close();
+		assertEquals(1, recycled.get());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void releasedArenaRejectsMats() {
+		MatArena arena = new MatArena();
+		arena.close();
+		arena.add(new CountingMat());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void releasedArenaCannotBeRetained() {
+		MatArena arena = new MatArena();
+		arena.close();
+		arena.retain();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closingTooOftenFails() {
+		MatArena arena = new MatArena();
+		arena.close();
+		arena.close();
+	}
+}
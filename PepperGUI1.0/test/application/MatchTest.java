@@ -0,0 +1,138 @@
+package application;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MatchTest {
+
+	@Test
+	public void plausibleHomographiesAreAccepted() {
+		assertFalse(Match.isDegenerate(new double[] { 1, 0, 0, 0, 1, 0, 0, 0, 1 }, 100, 100));
+		// rotated by 90 degrees, halved and moved
+		assertFalse(Match.isDegenerate(new double[] { 0, -0.5, 300, 0.5, 0, 20, 0, 0, 1 }, 100, 100));
+		// mild perspective
+		assertFalse(Match.isDegenerate(new double[] { 1, 0.1, 5, 0, 1, 5, 0.001, 0, 1 }, 100, 100));
+	}
+
+	@Test
+	public void mirroredOutlineIsDegenerate() {
+		assertTrue(Match.isDegenerate(new double[] { -1, 0, 200, 0, 1, 0, 0, 0, 1 }, 100, 100));
+	}
+
+	@Test
+	public void cornerBehindTheCameraIsDegenerate() {
+		assertTrue(Match.isDegenerate(new double[] { 1, 0, 0, 0, 1, 0, -0.02, 0, 1 }, 100, 100));
+	}
+
+	@Test
+	public void twistedOutlineIsDegenerate() {
+		// the two right corners swap places
+		assertTrue(Match.isDegenerate(new double[] { 1, 0, 0, 0, -1, 0, 0, 0.02, 1 }, 100, 100));
+	}
+
+	@Test
+	public void tinyOrHugeOutlinesAreDegenerate() {
+		assertTrue(Match.isDegenerate(new double[] { 0.1, 0, 0, 0, 0.1, 0, 0, 0, 1 }, 100, 100));
+		assertTrue(Match.isDegenerate(new double[] { 11, 0, 0, 0, 11, 0, 0, 0, 1 }, 100, 100));
+		assertFalse(Match.isDegenerate(new double[] { 9, 0, 0, 0, 9, 0, 0, 0, 1 }, 100, 100));
+	}
+
+	@Test
+	public void keepsTheMatchesThatAgreeOnRotationAndScale() {
+		int count = 30;
+		float[] objectShapes = new float[count * 2];
+		float[] sceneShapes = new float[count * 2];
+		for (int i = 0; i < count; i++) {
+			// rotated by 45 degrees and twice as large, give or take a little
+			shape(objectShapes, i, 10, 0);
+			shape(sceneShapes, i, 20 + i % 3, 45 + i % 5);
+		}
+		// outliers: other rotations and scales
+		shape(sceneShapes, 3, 20, 200);
+		shape(sceneShapes, 11, 2, 45);
+		shape(sceneShapes, 17, 160, 45);
+		shape(sceneShapes, 25, 20, 120);
+
+		int[] selected = new int[count];
+		int kept = Match.consistentMatches(identity(count), objectShapes, sceneShapes, selected);
+		int[] expected = new int[count - 4];
+		for (int i = 0, e = 0; i < count; i++) {
+			if (i != 3 && i != 11 && i != 17 && i != 25) {
+				expected[e++] = i;
+			}
+		}
+		assertArrayEquals(expected, Arrays.copyOf(selected, kept));
+	}
+
+	@Test
+	public void rotationBinsWrapAround() {
+		float[] objectShapes = new float[6 * 2];
+		float[] sceneShapes = new float[6 * 2];
+		for (int i = 0; i < 6; i++) {
+			shape(objectShapes, i, 10, 0);
+		}
+		// just below and just above a full turn are neighbours
+		shape(sceneShapes, 0, 10, 355);
+		shape(sceneShapes, 1, 10, 2);
+		shape(sceneShapes, 2, 10, 350);
+		shape(sceneShapes, 3, 10, 10);
+		// half a turn away
+		shape(sceneShapes, 4, 10, 180);
+		shape(sceneShapes, 5, 10, 185);
+
+		int[] selected = new int[6];
+		int kept = Match.consistentMatches(identity(6), objectShapes, sceneShapes, selected);
+		assertArrayEquals(new int[] { 0, 1, 2, 3 }, Arrays.copyOf(selected, kept));
+	}
+
+	@Test
+	public void keypointsWithoutOrientationOrSizeStillVote() {
+		float[] objectShapes = new float[4 * 2];
+		float[] sceneShapes = new float[4 * 2];
+		for (int i = 0; i < 4; i++) {
+			// no angle (-1) and no size (0), as some detectors report
+			shape(objectShapes, i, 0, -1);
+			shape(sceneShapes, i, 0, -1);
+		}
+		int[] selected = new int[4];
+		assertEquals(4, Match.consistentMatches(identity(4), objectShapes, sceneShapes, selected));
+	}
+
+	@Test
+	public void extremeScaleChangesAreClamped() {
+		float[] objectShapes = new float[3 * 2];
+		float[] sceneShapes = new float[3 * 2];
+		for (int i = 0; i < 3; i++) {
+			shape(objectShapes, i, 1, 0);
+		}
+		// 10, 12 and 20 octaves larger all land in the last scale bin
+		shape(sceneShapes, 0, 1024, 0);
+		shape(sceneShapes, 1, 4096, 0);
+		shape(sceneShapes, 2, 1048576, 0);
+		int[] selected = new int[3];
+		assertEquals(3, Match.consistentMatches(identity(3), objectShapes, sceneShapes, selected));
+	}
+
+	/*
+	 * Good matches pairing object keypoint i with scene keypoint i.
+	 */
+	private static Match identity(int count) {
+		int[] indices = new int[count];
+		float[] distances = new float[count];
+		for (int i = 0; i < count; i++) {
+			indices[i] = i;
+		}
+		return new Match(indices, indices.clone(), distances, count);
+	}
+
+	private static void shape(float[] shapes, int keypoint, float size, float angle) {
+		shapes[keypoint * 2] = size;
+		shapes[keypoint * 2 + 1] = angle;
+	}
+}
@@ -0,0 +1,53 @@
+package application;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PipelineMetricsTest {
+
+	@Test
+	public void reportsTheRecordingWindowUntilOneCompletes() {
+		PipelineMetrics metrics = new PipelineMetrics();
+		metrics.record("extract", 5);
+		assertEquals(1, metrics.reported("extract").getCount());
+	}
+
+	@Test
+	public void rollWindowReportsTheLastPeriodOnly() {
+		PipelineMetrics metrics = new PipelineMetrics();
+		metrics.record("extract", 30);
+		metrics.rollWindow();
+		metrics.record("extract", 10);
+		metrics.record("extract", 10);
+		assertEquals(1, metrics.reported("extract").getCount());
+		assertEquals(30, metrics.reported("extract").getMax());
+
+		metrics.rollWindow();
+		assertEquals(2, metrics.reported("extract").getCount());
+		assertEquals(10, metrics.reported("extract").getMax());
+		assertEquals(0, metrics.histogram("extract").getCount());
+	}
+
+	@Test
+	public void completedFramesOutliveTheWindows() {
+		PipelineMetrics metrics = new PipelineMetrics();
+		metrics.record("total", 1000);
+		metrics.rollWindow();
+		metrics.record("total", 1000);
+		metrics.rollWindow();
+		assertEquals(2, metrics.getFramesCompleted());
+	}
+
+	@Test
+	public void mirrorsGetEveryValueOfTheirStage() {
+		PipelineMetrics metrics = new PipelineMetrics();
+		LatencyHistogram window = new LatencyHistogram();
+		metrics.mirror("total", window);
+		metrics.record("total", 3);
+		metrics.record("extract", 3);
+		metrics.unmirror("total", window);
+		metrics.record("total", 3);
+		assertEquals(1, window.getCount());
+	}
+}
@@ -0,0 +1,107 @@
+package application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opencv.core.Mat;
+
+public class RecognitionCacheTest {
+	// results of a frame where nothing was found; they hold no native memory
+	private static final Map<String, Mat> NOTHING = Collections.emptyMap();
+
+	private final FrameRing ring = new FrameRing(new Mat[1]);
+
+	@Test
+	public void fingerprintComparesNeighbours() {
+		RecognitionCache.Fingerprint falling = RecognitionCache.fingerprint(gradient(-1));
+		RecognitionCache.Fingerprint rising = RecognitionCache.fingerprint(gradient(1));
+		RecognitionCache.Fingerprint flat = RecognitionCache.fingerprint(gradient(0));
+		assertEquals(256, falling.distance(flat));
+		assertEquals(0, rising.distance(flat));
+		assertEquals(256, falling.distance(rising));
+	}
+
+	@Test
+	public void distanceCountsDifferingBits() {
+		RecognitionCache.Fingerprint fingerprint = fingerprint(0);
+		assertEquals(0, fingerprint.distance(fingerprint(0)));
+		assertEquals(3, fingerprint.distance(fingerprint(0, 1, 64, 255)));
+		assertEquals(fingerprint(5, 70), fingerprint(5, 70));
+		assertEquals(fingerprint(5, 70).hashCode(), fingerprint(5, 70).hashCode());
+	}
+
+	@Test
+	public void lookupHitsCloseFingerprints() {
+		RecognitionCache cache = new RecognitionCache(4, 2);
+		cache.store(fingerprint(0), 1, NOTHING);
+		assertTrue(lookup(cache, fingerprint(0, 10, 200), 1));
+		assertFalse(lookup(cache, fingerprint(0, 10, 100, 200), 1));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0.5, cache.getHitRate(), 1e-9);
+	}
+
+	@Test
+	public void evictsTheLeastRecentlyUsedEntry() {
+		RecognitionCache cache = new RecognitionCache(2, 0);
+		cache.store(fingerprint(0), 1, NOTHING);
+		cache.store(fingerprint(1), 1, NOTHING);
+		// the first entry is used again, so the second is now the oldest
+		assertTrue(lookup(cache, fingerprint(0), 1));
+		cache.store(fingerprint(2), 1, NOTHING);
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertTrue(lookup(cache, fingerprint(0), 1));
+		assertFalse(lookup(cache, fingerprint(1), 1));
+		assertTrue(lookup(cache, fingerprint(2), 1));
+	}
+
+	@Test
+	public void newCatalogVersionClearsTheEntries() {
+		RecognitionCache cache = new RecognitionCache(4, 0);
+		cache.store(fingerprint(0), 1, NOTHING);
+		assertFalse(lookup(cache, fingerprint(0), 2));
+		assertEquals(0, cache.size());
+	}
+
+	private boolean lookup(RecognitionCache cache, RecognitionCache.Fingerprint fingerprint, int version) {
+		FrameJob job = new FrameJob(ring.acquire());
+		try {
+			return cache.lookup(fingerprint, version, job);
+		} finally {
+			job.release();
+		}
+	}
+
+	/*
+	 * A fingerprint that differs from those of other ids in its last word, with the
+	 * given bits flipped.
+	 */
+	private static RecognitionCache.Fingerprint fingerprint(int id, int... setBits) {
+		long[] bits = new long[4];
+		bits[3] = id;
+		for (int bit : setBits) {
+			bits[bit >>> 6] ^= 1L << (bit & 63);
+		}
+		return new RecognitionCache.Fingerprint(bits);
+	}
+
+	/*
+	 * A 17x16 thumbnail whose rows change by step grey levels from pixel to pixel.
+	 */
+	private static byte[] gradient(int step) {
+		byte[] pixels = new byte[17 * 16];
+		for (int y = 0; y < 16; y++) {
+			for (int x = 0; x < 17; x++) {
+				pixels[y * 17 + x] = (byte) (100 + step * x * 5);
+			}
+		}
+		return pixels;
+	}
+}